@@ -0,0 +1,68 @@
+package sportclub.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sportclub.Database;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Создание бэкапа. kind = full -- снимков еще нет, копируется весь журнал;
+// incremental -- после прошлого снимка дописано CHANGES записей, копируются только они.
+// Подготовка (удаление снимков или дозапись) идет перед каждым вызовом и в замер не входит
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BackupBenchmark {
+    private static final int CHANGES = 100;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"full", "incremental"})
+    public String kind;
+
+    private Path db;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        db = Datasets.copy(records);
+        database = new Database(db);
+        database.setDurability(Database.Durability.NONE, 0); // дозапись при подготовке не ждет диск
+        database.open();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare() throws IOException {
+        if (kind.equals("full")) {
+            deleteSnapshots();
+        } else {
+            for (int i = 0; i < CHANGES; i++) {
+                int id = database.getNextId();
+                database.addValue(Datasets.record(id, Names.fullName(ThreadLocalRandom.current()), new Random(id)));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        Datasets.delete(db);
+    }
+
+    @Benchmark
+    public void backup() throws IOException {
+        database.createBackup();
+    }
+
+    private void deleteSnapshots() throws IOException {
+        String name = db.getFileName().toString();
+        Datasets.deleteTree(db.resolveSibling(name.substring(0, name.length() - ".db".length()) + "_backups"));
+    }
+}
@@ -0,0 +1,74 @@
+package sportclub.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sportclub.Data;
+import sportclub.Database;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Основные операции над БД размером records записей: пропускная способность (ops/us)
+// и распределение задержек (SampleTime: p50, p90, p99, p99.9). Частота выделения памяти -- с -prof gc.
+// durability -- как изменения сбрасываются на диск (SYNC по умолчанию, как в самой БД)
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"SYNC"})
+    public String durability;
+
+    private Path db;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        db = Datasets.copy(records);
+        database = new Database(db);
+        database.setDurability(Database.Durability.valueOf(durability), 0);
+        database.open(); // индексы загружаются до измерений
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        Datasets.delete(db);
+    }
+
+    @Benchmark
+    public int insert() throws IOException {
+        int id = database.getNextId();
+        database.addValue(Datasets.record(id, Names.fullName(ThreadLocalRandom.current()), new Random(id)));
+        return id;
+    }
+
+    @Benchmark
+    public Data lookup() throws IOException {
+        return database.searchById(1 + ThreadLocalRandom.current().nextInt(records));
+    }
+
+    @Benchmark
+    public int searchName() throws IOException {
+        return database.searchByFullName(Names.searchable(ThreadLocalRandom.current()), value -> { });
+    }
+
+    @Benchmark
+    public void edit() throws IOException {
+        Random random = ThreadLocalRandom.current();
+        int id = 1 + random.nextInt(records);
+        database.editValue(id, Datasets.record(id, Names.fullName(random), new Random(id)));
+    }
+
+    @Benchmark
+    public int nextId() throws IOException {
+        return database.getNextId();
+    }
+}
@@ -0,0 +1,88 @@
+package sportclub.bench;
+
+import sportclub.Data;
+import sportclub.Database;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+// Тестовые БД. БД на records записей генерируется один раз и хранится в каталоге
+// -Dbench.data (по умолчанию target/bench-data), каждому бенчмарку достается ее копия во
+// временном каталоге, потому что бенчмарки БД меняют. Генерация 10 млн записей -- несколько минут.
+public final class Datasets {
+    public static final String DB_FILE = "sportclub.db";
+    private static final long SEED = 42;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2015, 1, 1);
+
+    private Datasets() {
+    }
+
+    // копия готовой БД вместе с индексами; возвращается путь к файлу БД в копии
+    public static Path copy(int records) throws IOException {
+        Path source = prepare(records);
+        Path directory = Files.createTempDirectory("sportclub-bench");
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (Files.isRegularFile(file) && !name.endsWith(".lock") && !name.equals("complete")) {
+                    Files.copy(file, directory.resolve(name));
+                }
+            }
+        }
+        return directory.resolve(DB_FILE);
+    }
+
+    // удаляет копию целиком (вместе с бэкапами)
+    public static void delete(Path db) throws IOException {
+        if (db != null) {
+            deleteTree(db.getParent());
+        }
+    }
+
+    public static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    // файлы индексов рядом с БД (без них она открывается "с холода": индексы строятся по журналу)
+    public static void deleteIndexes(Path db) throws IOException {
+        String base = db.toString().substring(0, db.toString().length() - ".db".length());
+        for (String suffix : new String[]{".idx", ".nidx", ".didx", ".sidx", ".seq", ".chk"}) {
+            Files.deleteIfExists(Paths.get(base + suffix));
+        }
+    }
+
+    // синтетическая запись: даты и тренировки -- из random
+    public static Data record(int id, String fullName, Random random) {
+        LocalDate purchase = FIRST_DAY.plusDays(random.nextInt(4000));
+        return new Data(id, fullName, purchase, purchase.plusMonths(1 + random.nextInt(12)), random.nextBoolean());
+    }
+
+    private static synchronized Path prepare(int records) throws IOException {
+        Path directory = Paths.get(System.getProperty("bench.data", "target/bench-data"), String.valueOf(records));
+        Path complete = directory.resolve("complete"); // генерация могла прерваться -- тогда заново
+        if (!Files.exists(complete)) {
+            deleteTree(directory);
+            Files.createDirectories(directory);
+            try (Database target = new Database(directory.resolve(DB_FILE))) {
+                target.createDatabase();
+                Random random = new Random(SEED);
+                // id задаются явно (1..records), записи пишутся пакетным импортом
+                target.importRecords(IntStream.rangeClosed(1, records).mapToObj(id -> record(id, Names.fullName(random), random)));
+            }
+            Files.createFile(complete);
+        }
+        return directory;
+    }
+}
@@ -0,0 +1,51 @@
+package sportclub.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sportclub.Database;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Удаление по id. Удалить запись можно только один раз, поэтому каждое измерение -- пакет из
+// BATCH удалений разных записей подряд (SingleShotTime с batchSize), время -- на весь пакет.
+// Всех итераций хватает и на самую маленькую БД (10 000 записей)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = DeleteBenchmark.BATCH)
+@Measurement(iterations = 5, batchSize = DeleteBenchmark.BATCH)
+@Fork(1)
+public class DeleteBenchmark {
+    static final int BATCH = 1000;
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"SYNC"})
+    public String durability;
+
+    private Path db;
+    private Database database;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        db = Datasets.copy(records);
+        database = new Database(db);
+        database.setDurability(Database.Durability.valueOf(durability), 0);
+        database.open();
+        next = 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        Datasets.delete(db);
+    }
+
+    @Benchmark
+    public void delete() throws IOException {
+        database.deleteValueID(next++);
+    }
+}
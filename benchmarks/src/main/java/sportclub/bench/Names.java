@@ -0,0 +1,32 @@
+package sportclub.bench;
+
+import java.util.Random;
+
+// Синтетические ФИО для тестовых БД: фамилия, имя, отчество из коротких списков,
+// так что у поиска по имени всегда есть совпадения (примерно records / 1500 на "Фамилия Имя")
+public final class Names {
+    private static final String[] SURNAMES = {
+            "Ivanov", "Petrov", "Sidorov", "Smirnov", "Kuznetsov", "Popov", "Vasiliev", "Sokolov", "Mikhailov", "Novikov",
+            "Fedorov", "Morozov", "Volkov", "Alekseev", "Lebedev", "Semenov", "Egorov", "Pavlov", "Kozlov", "Stepanov",
+            "Nikolaev", "Orlov", "Andreev", "Makarov", "Nikitin", "Zakharov", "Zaitsev", "Soloviev", "Borisov", "Yakovlev",
+            "Grigoriev", "Romanov", "Vorobiev", "Sergeev", "Kuzmin", "Frolov", "Alexandrov", "Dmitriev", "Korolev", "Gusev",
+            "Kiselev", "Ilyin", "Maksimov", "Polyakov", "Sorokin", "Vinogradov", "Kovalev", "Belov", "Medvedev", "Antonov"};
+    private static final String[] NAMES = {
+            "Ivan", "Petr", "Sergey", "Andrey", "Dmitry", "Alexey", "Nikolay", "Mikhail", "Pavel", "Oleg",
+            "Anna", "Maria", "Elena", "Olga", "Natalia", "Irina", "Svetlana", "Tatiana", "Yulia", "Ekaterina",
+            "Artem", "Maxim", "Kirill", "Egor", "Roman", "Daria", "Polina", "Sofia", "Victoria", "Alina"};
+    private static final String[] PATRONYMICS = {
+            "Ivanovich", "Petrovich", "Sergeevich", "Andreevich", "Dmitrievich", "Alexeevich", "Nikolaevich", "Mikhailovich"};
+
+    private Names() {
+    }
+
+    public static String fullName(Random random) {
+        return searchable(random) + " " + PATRONYMICS[random.nextInt(PATRONYMICS.length)];
+    }
+
+    // "Фамилия Имя" -- запрос для поиска по имени
+    public static String searchable(Random random) {
+        return SURNAMES[random.nextInt(SURNAMES.length)] + " " + NAMES[random.nextInt(NAMES.length)];
+    }
+}
@@ -0,0 +1,56 @@
+package sportclub.bench;
+
+import org.openjdk.jmh.annotations.*;
+import sportclub.Database;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Полное открытие БД: блокировка файла, проверка хвоста журнала, загрузка индексов.
+// indexes = warm -- индексы на диске есть (обычный запуск программы),
+// cold -- индексов нет, они строятся проходом по всему журналу (первый запуск, после сбоя)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OpenBenchmark {
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public int records;
+
+    @Param({"warm", "cold"})
+    public String indexes;
+
+    private Path db;
+    private Database database;
+
+    @Setup(Level.Trial)
+    public void copy() throws IOException {
+        db = Datasets.copy(records);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        if (indexes.equals("cold")) {
+            Datasets.deleteIndexes(db);
+        }
+        database = new Database(db);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        database.close(); // закрытие (сохранение индексов) в замер не входит
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Datasets.delete(db);
+    }
+
+    @Benchmark
+    public void open() throws IOException {
+        database.open();
+    }
+}
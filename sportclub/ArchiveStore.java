@@ -0,0 +1,439 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Архив давно закончившихся абонементов (каталог sportclub_archive).
+// Архив -- набор сегментов, каждый пишется один раз и больше не меняется:
+//   segment-<номер>.arc: блоки по ~64 КБ строк записей (Data.toFileString), сжатые Deflate,
+//   затем таблица блоков (первый id, смещение, длины, crc сжатого блока), отсортированные id
+//   всех записей сегмента и в конце -- количество блоков, смещение таблицы и magic.
+// Записи в сегменте отсортированы по id: запись по id -- это бинарный поиск по таблице и распаковка одного блока.
+// Если запись попала в архив несколько раз (вернулась в БД и снова устарела), действует копия из нового сегмента.
+// Записи, которые вернули в БД или удалили, перечисляются в dropped.ids (пары int: id и номер сегмента
+// с выбывшей копией) -- в сегментах они остаются, но больше не видны.
+// Копия выбывает из-за строки журнала (новая версия, надгробие, транзакция), а журнал может оказаться на диске
+// позже пометки или не оказаться совсем (ASYNC/NONE, рваная транзакция). Поэтому пометка сначала пишется
+// в pending.ids (id, номер сегмента и long -- длина журнала, до которой на диске должна быть эта строка).
+// При открытии пометки, чьи строки журнал пережил (или запись и так есть в журнале), переносятся в dropped.ids,
+// остальные отбрасываются -- архивная копия снова видна, и запись не пропадает ни там, ни там.
+// Перед тем как журнал переписывается целиком (сжатие, восстановление), длины в пометках теряют смысл --
+// их переносят в dropped.ids сразу (confirm).
+// Сегменты сейчас не переписываются: выбывшие копии остаются в них навсегда.
+// Меняется под блокировкой записи БД, читается под блокировкой чтения (как индексы)
+class ArchiveStore {
+    private static final int MAGIC = 0x53415243; // "SARC"
+    private static final int BLOCK = 64 * 1024; // несжатых байт в блоке
+    private static final String DROPPED = "dropped.ids";
+    private static final String PENDING = "pending.ids";
+
+    private final Path directory;
+    private final List<Segment> segments = new ArrayList<>(); // от старых к новым
+    private final IntMap newest = new IntMap(1024); // id -> номер сегмента в segments с актуальной копией
+    private int maxId;
+
+    static final class Segment {
+        final Path path;
+        final int number; // из имени файла, растет от старых к новым
+        final int[] firstIds; // таблица блоков
+        final long[] offsets;
+        final int[] compressedLengths;
+        final int[] rawLengths;
+        final int[] crcs;
+        final int[] ids; // все id сегмента по возрастанию
+
+        Segment(Path path, int number, int[] firstIds, long[] offsets, int[] compressedLengths, int[] rawLengths, int[] crcs, int[] ids) {
+            this.path = path;
+            this.number = number;
+            this.firstIds = firstIds;
+            this.offsets = offsets;
+            this.compressedLengths = compressedLengths;
+            this.rawLengths = rawLengths;
+            this.crcs = crcs;
+            this.ids = ids;
+        }
+
+        long size() throws IOException {
+            return Files.size(path);
+        }
+    }
+
+    ArchiveStore(Path directory) {
+        this.directory = directory;
+    }
+
+    // сегменты и список выбывших записей с диска. logLength -- длина журнала после проверки при открытии,
+    // inLog -- есть ли запись в журнале: по ним решается судьба пометок из pending.ids
+    void load(long logLength, IntPredicate inLog) throws IOException {
+        segments.clear();
+        newest.clear();
+        maxId = 0;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.arc")) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparingInt(ArchiveStore::number));
+        for (Path file : files) {
+            attach(readSegment(file));
+        }
+        Path dropped = directory.resolve(DROPPED);
+        if (Files.exists(dropped)) {
+            ByteBuffer pairs = ByteBuffer.wrap(Files.readAllBytes(dropped));
+            while (pairs.remaining() >= 8) { // недописанная последняя пара после сбоя -- пропускаем
+                hide(pairs.getInt(), pairs.getInt());
+            }
+        }
+        Path pending = directory.resolve(PENDING);
+        if (Files.exists(pending)) {
+            ByteBuffer marks = ByteBuffer.wrap(Files.readAllBytes(pending));
+            ByteBuffer confirmed = ByteBuffer.allocate(marks.capacity() / 2);
+            while (marks.remaining() >= 16) {
+                int id = marks.getInt();
+                int number = marks.getInt();
+                if (marks.getLong() <= logLength || inLog.test(id)) {
+                    hide(id, number);
+                    confirmed.putInt(id).putInt(number);
+                }
+            }
+            append(DROPPED, confirmed.flip());
+            Files.delete(pending);
+        }
+    }
+
+    // копия записи id из сегмента number и более старых больше не видна
+    private void hide(int id, int number) {
+        int position = newest.get(id);
+        if (position >= 0 && segments.get(position).number <= number) { // в более новом сегменте запись снова архивная
+            newest.remove(id);
+        }
+    }
+
+    // новый сегмент из записей (id > 0). Файл пишется рядом, сбрасывается на диск и атомарно получает свое имя;
+    // видны записи станут после attach
+    synchronized Segment create(List<Data> records) throws IOException {
+        Files.createDirectories(directory);
+        List<Data> sorted = new ArrayList<>(records);
+        sorted.sort(Comparator.comparingInt(value -> value.id));
+        int number = nextNumber();
+        Path path = directory.resolve(String.format("segment-%06d.arc", number));
+        Path temp = directory.resolve(path.getFileName() + ".tmp");
+        List<int[]> table = new ArrayList<>(); // firstId, compressedLength, rawLength, crc
+        List<Long> offsets = new ArrayList<>();
+        int[] ids = new int[sorted.size()];
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(1).flip();
+            writeFully(channel, header);
+            ByteArrayOutputStream raw = new ByteArrayOutputStream(BLOCK + 256);
+            Deflater deflater = new Deflater();
+            try {
+                int firstId = 0;
+                for (int i = 0; i < sorted.size(); i++) {
+                    Data value = sorted.get(i);
+                    ids[i] = value.id;
+                    if (raw.size() == 0) {
+                        firstId = value.id;
+                    }
+                    raw.write((value.toFileString() + "\n").getBytes(StandardCharsets.UTF_8));
+                    if (raw.size() >= BLOCK || i == sorted.size() - 1) {
+                        byte[] compressed = compress(deflater, raw.toByteArray());
+                        CRC32C crc = new CRC32C();
+                        crc.update(compressed);
+                        offsets.add(channel.position());
+                        table.add(new int[]{firstId, compressed.length, raw.size(), (int) crc.getValue()});
+                        writeFully(channel, ByteBuffer.wrap(compressed));
+                        raw.reset();
+                    }
+                }
+            } finally {
+                deflater.end();
+            }
+            long tableOffset = channel.position();
+            ByteBuffer tail = ByteBuffer.allocate(table.size() * 24 + 4 + ids.length * 4 + 16);
+            for (int i = 0; i < table.size(); i++) {
+                int[] block = table.get(i);
+                tail.putInt(block[0]).putLong(offsets.get(i)).putInt(block[1]).putInt(block[2]).putInt(block[3]);
+            }
+            tail.putInt(ids.length);
+            for (int id : ids) {
+                tail.putInt(id);
+            }
+            tail.putInt(table.size()).putLong(tableOffset).putInt(MAGIC).flip();
+            writeFully(channel, tail);
+            channel.force(true); // сегмент -- на диске до того, как записи уйдут из БД
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return readSegment(path);
+    }
+
+    // записи сегмента становятся видны (новее всех прежних копий)
+    void attach(Segment segment) {
+        int position = segments.size();
+        segments.add(segment);
+        for (int id : segment.ids) {
+            newest.put(id, position);
+            maxId = Math.max(maxId, id);
+        }
+    }
+
+    boolean contains(int id) {
+        return newest.get(id) >= 0;
+    }
+
+    // запись больше не архивная (вернулась в БД или удалена). logLength -- до какой длины журнал должен
+    // быть на диске, чтобы это стало окончательным (0 -- в журнал ничего не писалось). false -- записи и не было в архиве
+    boolean drop(int id, long logLength) throws IOException {
+        return dropAll(new int[]{id}, 1, logLength) > 0;
+    }
+
+    // то же для пакета записей: одна дозапись и один fsync. Возвращает, сколько из них было в архиве
+    int dropAll(int[] ids, int count, long logLength) throws IOException {
+        ByteBuffer marks = null;
+        for (int i = 0; i < count; i++) {
+            int position = newest.remove(ids[i]);
+            if (position >= 0) {
+                if (marks == null) {
+                    marks = ByteBuffer.allocate((count - i) * 16);
+                }
+                marks.putInt(ids[i]).putInt(segments.get(position).number).putLong(logLength);
+            }
+        }
+        if (marks == null) {
+            return 0; // обычный случай: таких записей в архиве нет
+        }
+        append(PENDING, marks.flip());
+        return marks.limit() / 16;
+    }
+
+    // журнал на диске целиком и сейчас будет переписан: все пометки из pending.ids становятся окончательными
+    void confirm() throws IOException {
+        Path pending = directory.resolve(PENDING);
+        if (!Files.exists(pending)) {
+            return;
+        }
+        ByteBuffer marks = ByteBuffer.wrap(Files.readAllBytes(pending));
+        ByteBuffer pairs = ByteBuffer.allocate(marks.capacity() / 2);
+        while (marks.remaining() >= 16) {
+            pairs.putInt(marks.getInt()).putInt(marks.getInt());
+            marks.getLong();
+        }
+        append(DROPPED, pairs.flip());
+        Files.delete(pending);
+    }
+
+    // архивная копия записи или null
+    Data get(int id) throws IOException {
+        int position = newest.get(id);
+        if (position < 0) {
+            return null;
+        }
+        Segment segment = segments.get(position);
+        int block = Arrays.binarySearch(segment.firstIds, id);
+        if (block < 0) {
+            block = -block - 2; // блок, который начинается перед id
+        }
+        Data[] found = {null};
+        readBlock(segment, block, value -> {
+            if (value.id == id) {
+                found[0] = value;
+            }
+        });
+        return found[0];
+    }
+
+    // обход архива по блокам: сегменты 0..segmentCount()-1, в каждом blockCount(segment) блоков
+    int segmentCount() {
+        return segments.size();
+    }
+
+    int blockCount(int segment) {
+        return segments.get(segment).firstIds.length;
+    }
+
+    // актуальные записи одного блока (выбывшие и устаревшие копии пропускаются)
+    void forEachInBlock(int segment, int block, Consumer<Data> action) throws IOException {
+        readBlock(segments.get(segment), block, value -> {
+            if (newest.get(value.id) == segment) {
+                action.accept(value);
+            }
+        });
+    }
+
+    // сколько записей только в архиве. Копия записи, которая еще действует в журнале (inLog), не считается:
+    // перенос прервался до надгробий, и запись пока в БД
+    int size(IntPredicate inLog) {
+        int count = 0;
+        for (int i = 0; i < newest.capacity(); i++) {
+            if (newest.isUsed(i) && !inLog.test(newest.keyAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // наибольший id, когда-либо попадавший в архив (чтобы счетчик id не выдал его повторно)
+    int maxId() {
+        return maxId;
+    }
+
+    // удаление архива вместе с БД
+    void delete() throws IOException {
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path file : stream) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        segments.clear();
+        newest.clear();
+        maxId = 0;
+    }
+
+    private void readBlock(Segment segment, int block, Consumer<Data> action) throws IOException {
+        byte[] compressed = new byte[segment.compressedLengths[block]];
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(compressed);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, segment.offsets[block] + buffer.position()) < 0) {
+                    throw new EOFException("Archive segment is truncated: " + segment.path);
+                }
+            }
+        }
+        Metrics.read(compressed.length);
+        CRC32C crc = new CRC32C();
+        crc.update(compressed);
+        if ((int) crc.getValue() != segment.crcs[block]) {
+            throw new DatabaseException.Damaged("Archive segment is damaged: " + segment.path + ", block " + block);
+        }
+        byte[] raw = new byte[segment.rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                length += inflater.inflate(raw, length, raw.length - length);
+            }
+            if (length != raw.length) {
+                throw new DatabaseException.Damaged("Archive segment is damaged: " + segment.path + ", block " + block);
+            }
+        } catch (DataFormatException e) {
+            throw new DatabaseException.Damaged("Archive segment is damaged: " + segment.path + ", block " + block);
+        } finally {
+            inflater.end();
+        }
+        int start = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                Metrics.scanned(1);
+                action.accept(Data.fromFileString(new String(raw, start, i - start, StandardCharsets.UTF_8)));
+                start = i + 1;
+            }
+        }
+    }
+
+    private static Segment readSegment(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer footer = ByteBuffer.allocate(16);
+            readFully(channel, footer, size - 16);
+            int blocks = footer.getInt();
+            long tableOffset = footer.getLong();
+            if (size < 24 || footer.getInt() != MAGIC || tableOffset < 8 || tableOffset > size - 16) {
+                throw new DatabaseException.Damaged("Archive segment is damaged: " + path);
+            }
+            ByteBuffer tail = ByteBuffer.allocate((int) (size - 16 - tableOffset));
+            readFully(channel, tail, tableOffset);
+            int[] firstIds = new int[blocks];
+            long[] offsets = new long[blocks];
+            int[] compressedLengths = new int[blocks];
+            int[] rawLengths = new int[blocks];
+            int[] crcs = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                firstIds[i] = tail.getInt();
+                offsets[i] = tail.getLong();
+                compressedLengths[i] = tail.getInt();
+                rawLengths[i] = tail.getInt();
+                crcs[i] = tail.getInt();
+            }
+            int[] ids = new int[tail.getInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = tail.getInt();
+            }
+            return new Segment(path, number(path), firstIds, offsets, compressedLengths, rawLengths, crcs, ids);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new DatabaseException.Damaged("Archive segment is damaged: " + path);
+        }
+    }
+
+    private int nextNumber() throws IOException {
+        int number = 0;
+        if (Files.isDirectory(directory)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.arc*")) {
+                for (Path file : stream) {
+                    number = Math.max(number, number(file));
+                }
+            }
+        }
+        return number + 1;
+    }
+
+    // segment-000012.arc -> 12
+    private static int number(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), "segment-".length() + 6));
+    }
+
+    private static byte[] compress(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 3 + 64);
+        byte[] chunk = new byte[16 * 1024];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Archive segment is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    // дозапись в файл каталога архива и fsync
+    private void append(String file, ByteBuffer data) throws IOException {
+        if (!data.hasRemaining()) {
+            return;
+        }
+        Files.createDirectories(directory);
+        try (FileChannel channel = FileChannel.open(directory.resolve(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeFully(channel, data);
+            channel.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
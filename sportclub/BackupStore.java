@@ -0,0 +1,206 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+// Снимки БД (бэкапы) в отдельном каталоге (sportclub_backups).
+// Файл БД -- журнал на дозапись, поэтому снимок -- это просто длина журнала в момент бэкапа,
+// а хранится он как цепочка сегментов: [0, L1) [L1, L2) ... Каждый следующий бэкап копирует
+// только то, что дописано после предыдущего, а остальные сегменты берет у него же.
+// Если журнал за это время переписали (сжатие, восстановление, удаление), у него другое поколение
+// (его хранит Database в файле проверенной точки) -- тогда копируется весь файл (новая цепочка).
+// Хранятся последние keep снимков; сегмент удаляется, когда на него не ссылается ни один снимок.
+// Список снимков -- в snapshots.txt, по строке на снимок:
+//   id,время (мс),длина,поколение журнала,сегменты (id снимка:от:до через |)
+public class BackupStore {
+    private static final String MANIFEST = "snapshots.txt";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm:ss");
+
+    private final Path directory;
+    private final int keep;
+
+    static final class Segment {
+        final int snapshot; // снимок, при котором сегмент был скопирован (и имя его файла)
+        final long from;
+        final long to;
+
+        Segment(int snapshot, long from, long to) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    public static final class Snapshot {
+        public final int id;
+        public final long time; // когда снят (мс от эпохи)
+        public final long length; // байт журнала в снимке
+        final long log; // поколение журнала, с которого снят снимок
+        final List<Segment> segments;
+
+        Snapshot(int id, long time, long length, long log, List<Segment> segments) {
+            this.id = id;
+            this.time = time;
+            this.length = length;
+            this.log = log;
+            this.segments = segments;
+        }
+
+        // сколько байт пришлось скопировать при создании этого снимка
+        public long copiedBytes() {
+            Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            return last != null && last.snapshot == id ? last.to - last.from : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id + " " + LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()).format(TIME_FORMAT)
+                    + " (" + length + " bytes)";
+        }
+    }
+
+    BackupStore(Path directory, int keep) {
+        this.directory = directory;
+        this.keep = Math.max(1, keep);
+    }
+
+    // новый снимок первых length байт журнала. log -- канал, открытый под блокировкой БД:
+    // даже если файл после этого заменят (сжатие), канал читает тот файл, длина которого снята.
+    // generation -- поколение этого журнала: пока оно то же, журнал только дописывался
+    synchronized Snapshot create(FileChannel log, long length, long generation) throws IOException {
+        Files.createDirectories(directory);
+        List<Snapshot> snapshots = list();
+        Snapshot last = snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        int id = last == null ? 1 : last.id + 1;
+        List<Segment> segments = new ArrayList<>();
+        long from = 0;
+        log.force(false); // скопированное должно быть и в самом журнале: после сбоя его хвост не пропадет
+        if (last != null && last.log == generation && last.length <= length) {
+            segments.addAll(last.segments); // журнал только дописывался -- копируем лишь новое
+            from = last.length;
+        }
+        if (length > from) {
+            copy(log, from, length, segmentPath(id));
+            segments.add(new Segment(id, from, length));
+        }
+        Snapshot snapshot = new Snapshot(id, System.currentTimeMillis(), length, generation, segments);
+        snapshots.add(snapshot);
+        while (snapshots.size() > keep) {
+            snapshots.remove(0);
+        }
+        store(snapshots);
+        deleteUnreferenced(snapshots);
+        return snapshot;
+    }
+
+    // снимки от старых к новым
+    synchronized List<Snapshot> list() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        List<Snapshot> snapshots = new ArrayList<>();
+        if (!Files.exists(manifest)) {
+            return snapshots;
+        }
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            // у снимков старых версий вместо поколения две crc -- с ними цепочка не продолжается
+            boolean old = fields.length > 5;
+            List<Segment> segments = new ArrayList<>();
+            for (String segment : fields[old ? 5 : 4].split("\\|")) {
+                if (!segment.isEmpty()) {
+                    String[] parts = segment.split(":");
+                    segments.add(new Segment(Integer.parseInt(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                }
+            }
+            snapshots.add(new Snapshot(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    old ? 0 : Long.parseLong(fields[3]), segments));
+        }
+        return snapshots;
+    }
+
+    synchronized Snapshot find(int id) throws IOException {
+        for (Snapshot snapshot : list()) {
+            if (snapshot.id == id) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    // собирает файл БД снимка из его сегментов в target и сбрасывает его на диск
+    synchronized void assemble(Snapshot snapshot, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Segment segment : snapshot.segments) {
+                try (FileChannel in = FileChannel.open(segmentPath(segment.snapshot), StandardOpenOption.READ)) {
+                    long length = segment.to - segment.from;
+                    if (in.size() != length) {
+                        throw new DatabaseException.Damaged("Backup segment is damaged: " + segmentPath(segment.snapshot));
+                    }
+                    long done = 0;
+                    while (done < length) {
+                        done += in.transferTo(done, length - done, out.position(segment.from + done));
+                    }
+                }
+            }
+            out.force(true);
+        }
+    }
+
+    // сегмент копируется во временный файл и появляется под своим именем только целиком
+    private void copy(FileChannel log, long from, long to, Path segment) throws IOException {
+        Path temp = segment.resolveSibling(segment.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long done = 0;
+            while (done < to - from) {
+                done += log.transferTo(from + done, to - from - done, out);
+            }
+            out.force(true);
+        }
+        Files.move(temp, segment, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void store(List<Snapshot> snapshots) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        for (Snapshot snapshot : snapshots) {
+            manifest.append(snapshot.id).append(',').append(snapshot.time).append(',').append(snapshot.length).append(',')
+                    .append(snapshot.log).append(',');
+            for (int i = 0; i < snapshot.segments.size(); i++) {
+                Segment segment = snapshot.segments.get(i);
+                manifest.append(i > 0 ? "|" : "").append(segment.snapshot).append(':').append(segment.from).append(':').append(segment.to);
+            }
+            manifest.append('\n');
+        }
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        Files.write(temp, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void deleteUnreferenced(List<Snapshot> snapshots) throws IOException {
+        Set<Path> referenced = new HashSet<>();
+        for (Snapshot snapshot : snapshots) {
+            for (Segment segment : snapshot.segments) {
+                referenced.add(segmentPath(segment.snapshot));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg*")) {
+            for (Path file : files) {
+                if (!referenced.contains(file)) {
+                    Files.delete(file); // сегменты удаленных снимков и недописанные после сбоя
+                }
+            }
+        }
+    }
+
+    private Path segmentPath(int snapshot) {
+        return directory.resolve("snapshot-" + snapshot + ".seg");
+    }
+}
@@ -0,0 +1,256 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+// Двоичный формат записей -- для выгрузки (Database.exportBinary) и обмена с другими программами,
+// с конвертерами из журнала/CSV и обратно. Сама Database работает только с журналом (CSV) и этот
+// формат не открывает: правка на месте противоречит журналу, на котором держатся снимки, бэкапы и сжатие.
+// Файл начинается с заголовка (magic, версия, размер слота, вместимость поля имени),
+// за ним идут слоты фиксированного размера. Запись с ключом id всегда лежит в слоте id - 1,
+// т.е. по смещению HEADER_SIZE + (id - 1) * SLOT_SIZE: поиск, обход и правка на месте
+// не требуют ни разбора строк, ни индекса.
+// Слот: id (int, 0 -- слот пуст), дата покупки и дата окончания (номер дня от эпохи, int),
+// флаги (byte), длина имени в UTF-8 (short), имя (до NAME_CAP байт).
+// Более длинные имена лежат в файле переполнения (<файл>.ovf), а в поле имени
+// хранится их смещение (long) и длина (int).
+class BinaryStore implements Closeable {
+    static final int MAGIC = 0x53434246; // "SCBF"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int SLOT_SIZE = 80;
+    static final int NAME_CAP = SLOT_SIZE - 15;
+
+    private static final byte FLAG_TRAINING = 1;
+    private static final byte FLAG_OVERFLOW = 2;
+
+    private final Path path;
+    private final FileChannel channel;
+    private FileChannel overflow; // открывается только если встретилось длинное имя
+
+    private BinaryStore(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    // открывает двоичный файл БД, создавая его с заголовком, если файла еще нет
+    public static BinaryStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() == 0) {
+                header.putInt(MAGIC).putShort(VERSION).putShort((short) SLOT_SIZE).putShort((short) NAME_CAP);
+                header.clear();
+                writeFully(channel, header, 0);
+            } else {
+                readFully(channel, header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a binary sportclub database: " + path);
+                }
+                short version = header.getShort();
+                if (version != VERSION || header.getShort() != SLOT_SIZE || header.getShort() != NAME_CAP) {
+                    throw new IOException("Unsupported binary database version " + version + ": " + path);
+                }
+            }
+            return new BinaryStore(path, channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // новый пустой двоичный файл БД (старый файл и его файл переполнения удаляются)
+    public static BinaryStore create(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(overflowPath(path));
+        return open(path);
+    }
+
+    // количество слотов (максимальный возможный id)
+    public int capacity() throws IOException {
+        return (int) ((channel.size() - HEADER_SIZE) / SLOT_SIZE);
+    }
+
+    // одно позиционное чтение слота; null -- записи с таким id нет
+    public Data read(int id) throws IOException {
+        if (id <= 0 || id > capacity()) {
+            return null;
+        }
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        readFully(channel, slot, position(id));
+        slot.flip();
+        return decode(slot);
+    }
+
+    // запись кладется на свое место (перезаписывая старую версию)
+    public void write(Data value) throws IOException {
+        if (value.id <= 0) {
+            throw new IllegalArgumentException("Id must be positive: " + value.id);
+        }
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        byte[] name = value.fullName.getBytes(StandardCharsets.UTF_8);
+        byte flags = value.individualTraining ? FLAG_TRAINING : 0;
+        slot.putInt(value.id);
+        slot.putInt((int) value.purchaseDate.toEpochDay());
+        slot.putInt((int) value.expirationDate.toEpochDay());
+        if (name.length <= NAME_CAP) {
+            slot.put(flags);
+            slot.putShort((short) name.length);
+            slot.put(name);
+        } else {
+            FileChannel ovf = overflow();
+            long offset = ovf.size();
+            writeFully(ovf, ByteBuffer.wrap(name), offset);
+            slot.put((byte) (flags | FLAG_OVERFLOW));
+            slot.putShort((short) 12);
+            slot.putLong(offset);
+            slot.putInt(name.length);
+        }
+        slot.clear();
+        writeFully(channel, slot, position(value.id));
+    }
+
+    // освобождает слот (id = 0)
+    public void delete(int id) throws IOException {
+        if (id > 0 && id <= capacity()) {
+            writeFully(channel, ByteBuffer.allocate(4), position(id));
+        }
+    }
+
+    // последовательный обход всех занятых слотов крупными блоками
+    public void forEach(Consumer<Data> action) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(SLOT_SIZE * 1024);
+        long position = HEADER_SIZE;
+        long end = HEADER_SIZE + (long) capacity() * SLOT_SIZE;
+        while (position < end) {
+            block.clear();
+            block.limit((int) Math.min(block.capacity(), end - position));
+            readFully(channel, block, position);
+            block.flip();
+            while (block.remaining() >= SLOT_SIZE) {
+                ByteBuffer slot = block.slice(block.position(), SLOT_SIZE);
+                block.position(block.position() + SLOT_SIZE);
+                Data value = decode(slot);
+                if (value != null) {
+                    action.accept(value);
+                }
+            }
+            position += block.limit();
+        }
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+        if (overflow != null) {
+            overflow.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (overflow != null) {
+            overflow.close();
+        }
+    }
+
+    // конвертер CSV -> двоичный формат.
+    // Журнал проигрывается по порядку: новые версии перезаписывают слот, надгробия его освобождают.
+    // Нечитаемая строка или строка с неверной суммой -- DatabaseException.Damaged с номером строки
+    public static void convertFromCsv(Path csv, Path binary) throws IOException {
+        try (BinaryStore store = create(binary);
+             BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                try {
+                    line = RecordLine.strip(line); // журнал -- строки с контрольными суммами
+                    if (line.startsWith("-")) {
+                        store.delete(-Integer.parseInt(line));
+                    } else if (!line.isBlank() && !RecordLine.isTransaction(line)) {
+                        store.write(Data.fromFileString(line));
+                    }
+                } catch (RuntimeException e) {
+                    throw new DatabaseException.Damaged("Malformed line " + number + " in " + csv + ": " + e.getMessage());
+                }
+            }
+            store.force();
+        }
+    }
+
+    // конвертер двоичный формат -> CSV (записи в порядке id, без истории изменений)
+    public static void convertToCsv(Path binary, Path csv) throws IOException {
+        try (BinaryStore store = open(binary);
+             BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            IOException[] failure = {null};
+            store.forEach(value -> {
+                try {
+                    writer.write(value.toFileString());
+                    writer.write('\n');
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+    }
+
+    private Data decode(ByteBuffer slot) throws IOException {
+        int id = slot.getInt();
+        if (id == 0) {
+            return null;
+        }
+        LocalDate purchaseDate = LocalDate.ofEpochDay(slot.getInt());
+        LocalDate expirationDate = LocalDate.ofEpochDay(slot.getInt());
+        byte flags = slot.get();
+        int nameLength = slot.getShort();
+        String name;
+        if ((flags & FLAG_OVERFLOW) != 0) {
+            long offset = slot.getLong();
+            ByteBuffer bytes = ByteBuffer.allocate(slot.getInt());
+            readFully(overflow(), bytes, offset);
+            name = new String(bytes.array(), StandardCharsets.UTF_8);
+        } else {
+            name = new String(slot.array(), slot.arrayOffset() + slot.position(), nameLength, StandardCharsets.UTF_8);
+        }
+        return new Data(id, name, purchaseDate, expirationDate, (flags & FLAG_TRAINING) != 0);
+    }
+
+    private FileChannel overflow() throws IOException {
+        if (overflow == null) {
+            overflow = FileChannel.open(overflowPath(path), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return overflow;
+    }
+
+    private static Path overflowPath(Path binary) {
+        return binary.resolveSibling(binary.getFileName() + ".ovf");
+    }
+
+    private static long position(int id) {
+        return HEADER_SIZE + (long) (id - 1) * SLOT_SIZE;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of binary database");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package sportclub;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+public class Data {
+    public int id; // ключ каждого аккаунта
+    public String fullName; // имя
+    public LocalDate purchaseDate; //начало и конец (даты)
+    public LocalDate expirationDate;
+    public boolean individualTraining; // наличие индивидуальных тренировок.
+
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+
+    public Data(int id, String fullName, LocalDate purchaseDate, LocalDate expirationDate, boolean individualTraining) {
+        this.id = id;
+        this.fullName = fullName;
+        this.purchaseDate = purchaseDate;
+        this.expirationDate = expirationDate;
+        this.individualTraining = individualTraining;
+    }
+
+    public String toFileString() {
+        return id + "," + fullName + "," + purchaseDate.format(DATE_FORMATTER) + "," + expirationDate.format(DATE_FORMATTER) + "," + individualTraining;
+    }
+
+    public static Data fromFileString(String line) {
+        // через запятую в файле .db; имя -- все между первой запятой и третьей с конца (в нем могут быть запятые)
+        int first = line.indexOf(',');
+        int last = line.lastIndexOf(',');
+        int second = line.lastIndexOf(',', last - 1);
+        int third = line.lastIndexOf(',', second - 1);
+        if (first < 0 || third <= first) {
+            throw new IllegalArgumentException("Malformed record: " + line);
+        }
+        return new Data(
+                Integer.parseInt(line.substring(0, first)),
+                line.substring(first + 1, third),
+                LocalDate.parse(line.substring(third + 1, second), DATE_FORMATTER),
+                LocalDate.parse(line.substring(second + 1, last), DATE_FORMATTER),
+                Boolean.parseBoolean(line.substring(last + 1))
+        );
+    }
+}
@@ -0,0 +1,2317 @@
+package sportclub;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Файл БД -- журнал только на дозапись: каждая строка -- либо новая версия записи
+// (id,имя,даты,тренировки), либо "надгробие" удаленной записи (-id).
+// Актуальная версия каждой записи определяется индексом sportclub.idx,
+// а устаревшие строки периодически вычищаются сжатием (compact) в фоне.
+// У каждой строки есть контрольная сумма (RecordLine). При открытии БД строки, дописанные после
+// последней проверенной точки (sportclub.chk), сверяются с суммами, и рваный хвост после сбоя отрезается.
+//
+// Один объект Database -- одна БД, с ним можно работать из нескольких потоков:
+// - чтения идут под общей блокировкой чтения и друг друга не ждут;
+// - изменения одной записи выполняются по очереди (блокировка полосы id), а сама
+//   дозапись в журнал и обновление индексов -- короткий участок под блокировкой записи;
+// - файл sportclub.lock блокируется через FileChannel, чтобы второй процесс не открыл ту же БД.
+//
+// Интерфейса у БД нет: методы возвращают результат (найденную запись, количество, снимок), а об ошибках
+// сообщают исключениями (DatabaseException и ее подклассы для того, что стоит различать). DatabaseGUI --
+// один из клиентов, пакетные задачи и сервисы работают с тем же объектом без Swing:
+//     try (Database db = new Database(path)) { ... }
+// Файлы и индексы открываются при первом обращении и остаются открытыми между вызовами до close().
+// Ошибки фоновых задач (сжатие, перенос в архив, fsync в режиме ASYNC) пишутся в java.util.logging,
+// логгер "sportclub"; о неудачном фоновом fsync, кроме того, сообщит исключением следующее изменение.
+public class Database implements AutoCloseable {
+    private static final Logger LOG = Logger.getLogger("sportclub");
+    private static final int STRIPES = 64; // количество полос блокировок по id
+
+    private final String main_path; // файл самой БД
+    private final String backup_file; // файл для сохранения (бэкап старых версий -- одна полная копия)
+    private final String index_file; // индекс id -> позиция записи в файле БД
+    private final String sequence_file; // счетчик выданных id
+    private final String name_index_file; // индекс по имени
+    private final String date_index_file; // индекс по датам покупки и окончания
+    private final String stats_index_file; // счетчики для сводки (stats)
+    private final String lock_file; // блокировка БД от других процессов
+    private final String checkpoint_file; // до какого байта журнал проверен и сброшен на диск
+    private final BackupStore backups; // снимки БД в каталоге <база>_backups
+    private final ArchiveStore archive; // архив закончившихся абонементов в каталоге <база>_archive (см. archiveExpired)
+    private final Metrics metrics; // время и объемы операций, видны через JMX
+    private ObjectName metricsName; // под этим именем метрики зарегистрированы, пока БД открыта (под монитором metrics)
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private volatile boolean opened; // БД открывается при первом обращении
+    private FileChannel lockChannel;
+    private FileLock processLock;
+    private Thread shutdownHook;
+
+    // все ниже меняется только под блокировкой записи
+    private IdIndex index;
+    private IdSequence sequence;
+    private MappedReader reader; // файл БД, отображенный в память, для всех чтений
+    private FileChannel log; // файл БД, открытый для дозаписи, -- один на все изменения (null -- еще не открыт, см. log())
+    private NameIndex nameIndex;
+    private DateIndex dateIndex;
+    private StatsIndex statsIndex;
+
+    // сжатие запускается, когда мусор (устаревшие версии и надгробия) занимает больше этой доли файла
+    private volatile double compaction_threshold = Double.parseDouble(System.getProperty("sportclub.compaction.threshold", "0.5"));
+    // ... и при этом его не меньше стольких байт, чтобы не сжимать маленькую БД после каждой правки
+    private volatile long compaction_min_garbage = Long.getLong("sportclub.compaction.minGarbage", 64 * 1024);
+    private final ThreadPoolExecutor compactor; // поток сжатия завершается сам, если ему нечего делать
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ReentrantLock compacting = new ReentrantLock(); // compact() и фоновое сжатие пишут один и тот же временный файл
+    private long generation; // меняется, когда файл БД заменяется целиком
+    // то же для бэкапов, но переживает перезапуск: случайное число в файле проверенной точки.
+    // Пока оно не сменилось, журнал только дописывался, и снимок продолжает цепочку прошлого
+    private long logGeneration;
+    private final Set<ReadView> views = ConcurrentHashMap.newKeySet(); // открытые снимки (см. openView)
+
+    // записи, абонемент которых закончился больше стольких дней назад, раз в час переносятся в архив
+    // (sportclub.archive.days; меньше нуля -- не переносятся)
+    private volatile int archive_after_days = Integer.getInteger("sportclub.archive.days", -1);
+    private static final long ARCHIVE_INTERVAL_MINUTES = 60;
+    private static final int ARCHIVE_SEGMENT = 100_000; // записей в одном сегменте архива
+    private ScheduledFuture<?> archiveJob;
+
+    // резидентный режим (по желанию): все записи один раз загружаются в память,
+    // и чтения больше не разбирают файл. Кеш ограничен бюджетом памяти в байтах.
+    private boolean resident_mode = Boolean.getBoolean("sportclub.resident");
+    private long resident_budget = Long.getLong("sportclub.resident.budget", 64L * 1024 * 1024);
+    private RecordCache cache; // null -- режим выключен или БД не поместилась в бюджет
+
+    // долговечность изменений (sportclub.commit):
+    // SYNC -- метод изменения возвращается, когда строка уже на диске (fsync). Одновременные изменения
+    //   ждут один общий fsync: его делает первый из ждущих за всех, кто успел дописать (групповая фиксация);
+    // ASYNC -- fsync делается в фоне, метод не ждет: при сбое ОС теряются изменения последних миллисекунд;
+    // NONE -- когда сбрасывать на диск, решает ОС.
+    // commit_group_millis -- сколько fsync ждет, пока к группе присоединятся другие изменения
+    public enum Durability { SYNC, ASYNC, NONE }
+
+    private volatile Durability durability = Durability.valueOf(System.getProperty("sportclub.commit", "sync").toUpperCase(Locale.ROOT));
+    private volatile long commit_group_millis = Long.getLong("sportclub.commit.groupMillis", 0);
+    private static final long CHECKPOINT_STEP = 4L * 1024 * 1024; // проверенная точка сдвигается после стольких байт на диске
+    private static final int CHECKPOINT_WINDOW = 4096; // сколько байт перед проверенной точкой сверяется по crc
+    private final Object commitLock = new Object();
+    private boolean flushing; // fsync уже идет -- остальные ждут его
+    private long durableGeneration; // до какой длины журнал какого поколения уже на диске
+    private long durableLength;
+    private volatile long checkpointLength;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledThreadPoolExecutor flusher; // фоновый fsync в режиме ASYNC
+    private final AtomicReference<IOException> flushFailure = new AtomicReference<>(); // фоновый fsync не удался
+
+    // что должно оказаться на диске, чтобы изменение стало долговечным: журнал этого поколения до этой длины
+    private static final class Commit {
+        final long generation;
+        final long length;
+
+        Commit(long generation, long length) {
+            this.generation = generation;
+            this.length = length;
+        }
+    }
+
+    // пул для асинхронных операций: ограниченное число потоков и ограниченная очередь
+    private static final int ASYNC_THREADS = Integer.getInteger("sportclub.async.threads", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int ASYNC_QUEUE = Integer.getInteger("sportclub.async.queue", 256);
+    private final ThreadPoolExecutor async;
+
+    // прогресс длинной операции: сделано done из total (байт файла или записей)
+    public interface Progress {
+        Progress NONE = (done, total) -> { };
+
+        void update(long done, long total);
+    }
+
+    private static final int ROWS_PAGE = 1024; // записей за одну блокировку чтения при обходе запроса
+    private static final long VIEW_PAGE = 1 << 20; // байт журнала за одну блокировку чтения при обходе снимка
+    private static final int IMPORT_BATCH = 8192; // записей на одну дозапись и один fsync при импорте
+    // с какого размера пакета индексы по журналу обновляются в режиме пакета (beginBulk/endBulk);
+    // маленькие транзакции меняют их по одной записи -- так дешевле, чем сливать отложенное
+    private static final int BULK_MIN = 64;
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private interface JobAction<T> {
+        T run(Job job) throws Exception;
+    }
+
+    // отмена и прогресс одной асинхронной операции; длинные обходы вызывают step
+    // раз в несколько тысяч строк: там операция прерывается, если ее future отменили
+    private static final class Job {
+        static final Job NONE = new Job(null, Progress.NONE);
+        static final int STEP = 4096;
+
+        private final CompletableFuture<?> future;
+        private final Progress progress;
+
+        Job(CompletableFuture<?> future, Progress progress) {
+            this.future = future;
+            this.progress = progress;
+        }
+
+        void step(long done, long total) {
+            if (future != null && future.isCancelled()) {
+                throw new CancellationException();
+            }
+            progress.update(done, total);
+        }
+    }
+
+    // путь по умолчанию: -Dsportclub.path, иначе sportclub.db в текущем каталоге
+    public Database() {
+        this(System.getProperty("sportclub.path", "sportclub.db"));
+    }
+
+    public Database(Path path) {
+        this(path.toString());
+    }
+
+    // остальные файлы БД лежат рядом и называются так же: sportclub.idx, sportclub_backup.db и т.д.
+    public Database(String path) {
+        main_path = path;
+        String base = path.endsWith(".db") ? path.substring(0, path.length() - 3) : path;
+        backup_file = base + "_backup.db";
+        index_file = base + ".idx";
+        sequence_file = base + ".seq";
+        name_index_file = base + ".nidx";
+        date_index_file = base + ".didx";
+        stats_index_file = base + ".sidx";
+        lock_file = base + ".lock";
+        checkpoint_file = base + ".chk";
+        backups = new BackupStore(Paths.get(base + "_backups"), Integer.getInteger("sportclub.backup.keep", 24));
+        archive = new ArchiveStore(Paths.get(base + "_archive"));
+        metrics = new Metrics(Long.getLong("sportclub.slow.millis", 500));
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        compactor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "sportclub-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.allowCoreThreadTimeOut(true);
+        async = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(ASYNC_QUEUE), task -> {
+            Thread thread = new Thread(task, "sportclub-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+        async.allowCoreThreadTimeOut(true);
+        flusher = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "sportclub-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // как и у пулов выше, поток завершается сам: после close() в очереди не остается задач
+        // (отмененный перенос в архив из нее убирается), и закрытые объекты Database потоков не держат
+        flusher.setRemoveOnCancelPolicy(true);
+        flusher.setKeepAliveTime(30, TimeUnit.SECONDS);
+        flusher.allowCoreThreadTimeOut(true);
+    }
+
+    // 1 МЕТОД: создание базы данных. Учитывает, существует ли уже БД;
+    // создается файл (!). false -- БД уже есть
+    public boolean createDatabase() throws IOException {
+        return measured("createDatabase", () -> writing(this::createDataFile));
+    }
+
+    public boolean exists() {
+        return new File(main_path).exists();
+    }
+
+    // 2 МЕТОД: геттер всех значений в существующей БД.
+    // Работа напрямую с файлом, если он существует. Выводятся только актуальные версии записей.
+    // Записи передаются в action по одной, в порядке файла -- целиком в памяти БД не собирается.
+    // Обход идет по снимку (openView): изменения, сделанные во время обхода, в него не попадают
+    // и обхода не ждут. Возвращает количество записей; DatabaseException.NotFound, если БД нет
+    public int getValue(Consumer<Data> action) throws IOException {
+        return measured("getValue", () -> countLive(action, Job.NONE));
+    }
+
+    //МЕТОД 3: реализует автоматическую генерацию ID.
+    //Каждая новая запись получает id на 1 больше, чем другое.
+    // Это обеспечивает уникальность ключей + избежание опечаток человека + id отсортированы.
+    // Счетчик хранится в sportclub.seq, поэтому файл БД для этого не читается.
+    public int getNextId() throws IOException {
+        return measured("getNextId", () -> reading(() -> sequence.next())); // счетчик сам по себе потокобезопасен
+    }
+
+    // резервирует сразу count подряд идущих id (для пакетного добавления) и возвращает первый
+    public int reserveIds(int count) throws IOException {
+        return measured("reserveIds", () -> reading(() -> sequence.reserve(count)));
+    }
+
+    // МЕТОД 4: добавляет запись в БД.
+    // **работает напрямую с файлом: запись дописывается в конец журнала.
+    // id задает вызывающий (getNextId), он должен быть больше нуля. IllegalArgumentException -- запись нельзя записать
+    public void addValue(Data value) throws IOException {
+        if (value.id <= 0) {
+            throw new IllegalArgumentException("Record id must be positive: " + value.id);
+        }
+        writable(value);
+        measured("addValue", () -> {
+            awaitDurable(withKey(value.id, () -> writing(() -> appendRecord(value.id, value))));
+            return null;
+        });
+    }
+
+    // МЕТОД 5: поиск записи по ключу через индекс sportclub.idx.
+    // Индекс хранит смещение и длину строки, а файл отображен в память,
+    // поэтому поиск -- это чтение одной строки из отображения.
+    // Порядок id в файле и их уникальность больше не важны (действует последняя запись).
+    // Вызывается под блокировкой чтения или записи.
+    private Data findById(int id) {
+        Metrics.scanned(1);
+        if (cache != null) {
+            metrics.cacheHit();
+            return cache.get(id);
+        }
+        if (resident_mode) {
+            metrics.cacheMiss(); // кеш не поместился в бюджет памяти
+        }
+        long offset = index.offsetOf(id);
+        if (offset < 0) {
+            return null;
+        }
+        int length = index.lengthOf(id);
+        Metrics.read(length);
+        return reader.read(offset, length); // запись читается прямо из отображения файла
+    }
+
+    // МЕТОД 6: редактирование записей.
+    // Если запись найдена, ее новая версия дописывается в конец журнала; старая станет мусором для сжатия.
+    // Пока идет проверка и дозапись, эту запись никто другой не изменит и не удалит.
+    // false -- записи с таким id нет. У newValue должен быть тот же id (IllegalArgumentException)
+    public boolean editValue(int id, Data newValue) throws IOException {
+        sameId(id, newValue);
+        writable(newValue);
+        return measured("editValue", () -> {
+            Commit commit = withKey(id, () -> {
+                if (!reading(() -> findById(id) != null || archive.contains(id))) { // находим запись по индексу (или в архиве)
+                    return null;
+                }
+                return writing(() -> appendRecord(id, newValue)); // архивная запись при этом возвращается в БД
+            });
+            awaitDurable(commit);
+            return commit != null;
+        });
+    }
+
+    // МЕТОД 7: ищем по ключевому значению
+    // используется индекс по id; null -- записи нет
+    public Data searchById(int id) throws IOException {
+        return measured("searchById", () -> counted(reading(() -> findById(id))));
+    }
+
+    // МЕТОД 8: поиск по НЕключевому значению (в моей бд -- по имени)
+    // Поиск как по полному ФИО, таки и отдельно обрабаывает только имя, только фамилию и т.д.
+    // найденные записи передаются в action по одной; возвращает их количество
+    public int searchByFullName(String fullName, Consumer<Data> action) throws IOException {
+        return measured("searchByFullName", () -> countMatching(fullName, action, Job.NONE));
+    }
+
+    // МЕТОД 9: удаление по ключевому значению.
+    // В журнал дописывается "надгробие" записи, сам файл не переписывается. false -- записи нет
+    public boolean deleteValueID(int id) throws IOException {
+        return measured("deleteValueID", () -> {
+            Commit commit = withKey(id, () -> deleteIfExists(id));
+            awaitDurable(commit);
+            return commit != null;
+        });
+    }
+
+    // МЕТОД 10: удаление по НЕключевому значению. Возвращает количество удаленных записей
+    public int deleteValuebyName(String fullName) throws IOException {
+        return measured("deleteValuebyName", () -> {
+            int[] ids = reading(() -> nameIndex.search(fullName)); // находим все записи, соответствующие имени
+            Commit last = null; // на диск сбрасываются сразу все надгробия -- ждем последнее
+            int deleted = 0;
+            for (int id : ids) {
+                Commit commit = withKey(id, () -> deleteIfExists(id));
+                if (commit != null) {
+                    last = commit;
+                    deleted++;
+                }
+            }
+            awaitDurable(last);
+            return deleted;
+        });
+    }
+
+    // МЕТОД 11: создание бэкапа -- снимок журнала на текущий момент (см. BackupStore).
+    // Под блокировкой только открывается файл и запоминается длина журнала; копируется
+    // (только дописанное после прошлого снимка) уже без блокировок, записи в БД идут как обычно
+    public BackupStore.Snapshot createBackup() throws IOException {
+        return measured("createBackup", () -> {
+            FileChannel[] log = {null};
+            long[] logGeneration = {0};
+            long length = reading(() -> {
+                if (!new File(main_path).exists()) {
+                    throw new DatabaseException.NotFound("Database does not exist: " + main_path);
+                }
+                log[0] = FileChannel.open(Paths.get(main_path), StandardOpenOption.READ);
+                logGeneration[0] = this.logGeneration;
+                return index.coveredLength();
+            });
+            try (FileChannel channel = log[0]) {
+                BackupStore.Snapshot created = backups.create(channel, length, logGeneration[0]);
+                Metrics.read(created.copiedBytes());
+                Metrics.written(created.copiedBytes());
+                return created;
+            }
+        });
+    }
+
+    // МЕТОД 12: восстановление данных из последнего снимка
+    // (или из файла sportclub_backup.db, если он остался от старых версий, а снимков нет -- тогда null)
+    public BackupStore.Snapshot restoreFromBackup() throws IOException {
+        List<BackupStore.Snapshot> snapshots = backups.list();
+        if (!snapshots.isEmpty()) {
+            return restoreSnapshot(snapshots.get(snapshots.size() - 1).id);
+        }
+        if (!new File(backup_file).exists()) {
+            throw new DatabaseException.NotFound("Backup does not exist: " + backup_file);
+        }
+        measured("restoreFromBackup", () -> {
+            Path temp = restoreFile();
+            try {
+                Files.copy(Paths.get(backup_file), temp, StandardCopyOption.REPLACE_EXISTING);
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                    channel.force(true); // копия -- на диске до того, как подменит файл БД
+                    Metrics.written(channel.size());
+                }
+                replaceDataFile(temp);
+            } finally {
+                Files.deleteIfExists(temp); // если до подмены не дошло
+            }
+            return null;
+        });
+        return null;
+    }
+
+    // снимки от старых к новым
+    public List<BackupStore.Snapshot> listBackups() throws IOException {
+        return backups.list();
+    }
+
+    // восстановление из выбранного снимка: файл собирается рядом из сегментов и атомарно
+    // подменяет файл БД -- момента, когда БД нет совсем, не бывает
+    public BackupStore.Snapshot restoreSnapshot(int id) throws IOException {
+        BackupStore.Snapshot snapshot = backups.find(id);
+        if (snapshot == null) {
+            throw new DatabaseException.NotFound("Backup " + id + " does not exist");
+        }
+        return measured("restoreSnapshot", () -> {
+            Path temp = restoreFile();
+            try {
+                backups.assemble(snapshot, temp);
+                Metrics.written(snapshot.length);
+                replaceDataFile(temp);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            return snapshot;
+        });
+    }
+
+    // временный файл для восстановления: рядом с файлом БД (чтобы подмена была атомарной) и у каждого
+    // восстановления свой -- одновременные восстановления не пишут в один файл
+    private Path restoreFile() throws IOException {
+        Path main = Paths.get(main_path).toAbsolutePath();
+        return Files.createTempFile(main.getParent(), main.getFileName().toString(), ".restore");
+    }
+
+    // МЕТОД 13: удаление файла. false -- БД не было
+    public boolean deleteDatabase() throws IOException {
+        return measured("deleteDatabase", () -> writing(() -> {
+            freezeViews();
+            generation++;
+            reader.close();
+            closeFiles();
+            sequence.delete();
+            deleteIndexFiles();
+            archive.delete();
+            new File(checkpoint_file).delete();
+            markDurable(0);
+            boolean existed = new File(main_path).delete();
+            loadState(); // дальше работаем с пустой БД
+            return existed;
+        }));
+    }
+
+    // МЕТОД 14: сжатие журнала.
+    // Актуальные версии записей копируются в новый файл, затем под блокировкой туда же
+    // дописывается все, что успели добавить за время копирования, и новый файл атомарно
+    // подменяет старый. Обычно вызывается в фоне, когда мусора в файле стало много.
+    // Копирование идет без блокировок: строки журнала, которые уже записаны, не меняются.
+    public void compact() throws IOException {
+        ensureOpen();
+        compactLog();
+    }
+
+    // фоновое сжатие БД не открывает: если ее уже закрыли, сжимать нечего
+    private void compactLog() throws IOException {
+        measured("compact", () -> {
+            compacting.lock();
+            try {
+                copyLiveRecords();
+            } finally {
+                compacting.unlock();
+            }
+            return null;
+        });
+    }
+
+    private void copyLiveRecords() throws IOException {
+        IdIndex live;
+        long copiedUpTo;
+        long startGeneration;
+        lock.readLock().lock();
+        try {
+            if (!opened || !new File(main_path).exists() || !views.isEmpty()) {
+                return; // старые версии нужны открытым снимкам -- сожмем, когда их закроют
+            }
+            live = index.copy(); // снимок индекса: что считать актуальным на момент начала
+            copiedUpTo = live.coveredLength();
+            startGeneration = generation;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        File file = new File(main_path);
+        File temp = new File(main_path + ".compact");
+        IdIndex compacted = IdIndex.empty(file, new File(index_file));
+        long[] position = {0};
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+            IdIndex.scan(file, 0, (offset, line, length) -> {
+                int id = IdIndex.parseId(line, length);
+                if (offset < copiedUpTo && id > 0 && live.offsetOf(id) == offset) {
+                    out.write(line, 0, length);
+                    compacted.putInMemory(id, position[0], length);
+                    position[0] += length;
+                }
+            });
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!opened || generation != startGeneration || !views.isEmpty()) {
+                temp.delete(); // БД за это время закрыли, удалили, восстановили из бэкапа или открыли снимок
+                return;
+            }
+            try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                long tail = index.coveredLength() - copiedUpTo; // записи, добавленные во время копирования
+                long done = 0;
+                while (done < tail) {
+                    done += source.transferTo(copiedUpTo + done, tail - done, target.position(position[0] + done));
+                }
+                target.force(true);
+                source.force(false); // и старый журнал -- на диске: пометки архива ссылаются на его длины
+                Metrics.read(copiedUpTo + tail);
+                Metrics.written(position[0] + tail);
+            }
+            archive.confirm(); // в новом файле эти длины ничего не значат
+            deleteLogIndexFiles(); // длина файла, учтенная в сохраненных индексах, станет неверной
+            closeFiles(); // дальше дописываем в новый файл и в новый индекс
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generation++;
+            logGeneration = newLogGeneration(); // следующий бэкап копирует новый файл целиком
+            compacted.setCoveredLength(position[0]);
+            compacted.save();
+            compacted.sync(); // дочитываем в новый индекс перенесенный хвост
+            index = compacted;
+            markDurable(compacted.coveredLength()); // новый файл сброшен на диск целиком
+            writeCheckpoint(compacted.coveredLength());
+            reader.refresh(); // файл заменен -- отображаем новый
+            for (LogIndex logIndex : logIndexes()) {
+                logIndex.setCoveredLength(compacted.coveredLength()); // сами записи при сжатии не меняются
+                logIndex.save();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // МЕТОД 15: абонементы, которые заканчиваются в ближайшие days дней (начиная с сегодняшнего).
+    // Нужные id берутся из индекса по датам, читаются только эти записи.
+    public List<Data> expiringWithin(int days) throws IOException {
+        LocalDate today = LocalDate.now();
+        return searchByExpirationDate(today, today.plusDays(days));
+    }
+
+    public int countExpiringWithin(int days) throws IOException {
+        LocalDate today = LocalDate.now();
+        return countByExpirationDate(today, today.plusDays(days));
+    }
+
+    // МЕТОД 16: поиск по диапазону дат (обе границы включаются), записи идут по возрастанию даты.
+    // Подсчет количества вообще не читает записи -- только индекс.
+    public List<Data> searchByExpirationDate(LocalDate from, LocalDate to) throws IOException {
+        return measured("searchByExpirationDate", () -> reading(() -> readAll(dateIndex.expiringBetween(from, to))));
+    }
+
+    public int countByExpirationDate(LocalDate from, LocalDate to) throws IOException {
+        return measured("countByExpirationDate", () -> reading(() -> dateIndex.countExpiringBetween(from, to)));
+    }
+
+    public List<Data> searchByPurchaseDate(LocalDate from, LocalDate to) throws IOException {
+        return measured("searchByPurchaseDate", () -> reading(() -> readAll(dateIndex.purchasedBetween(from, to))));
+    }
+
+    public int countByPurchaseDate(LocalDate from, LocalDate to) throws IOException {
+        return measured("countByPurchaseDate", () -> reading(() -> dateIndex.countPurchasedBetween(from, to)));
+    }
+
+    // МЕТОД 17: асинхронный доступ к БД (чтобы интерфейс не ждал диск).
+    // Операции выполняются в ограниченном пуле потоков, результат приходит через CompletableFuture.
+    // Отмена (cancel) прерывает длинный обход на ближайшем шаге; прогресс сообщается через Progress
+    // из потока пула. Если очередь пула заполнена, future завершается с RejectedExecutionException.
+    public <T> CompletableFuture<T> submit(Callable<T> operation) {
+        return submit(job -> operation.call(), Progress.NONE);
+    }
+
+    // обход всех актуальных записей (как getValue); результат -- количество записей
+    public CompletableFuture<Integer> getValueAsync(Consumer<Data> action, Progress progress) {
+        return submit(job -> measured("getValue", () -> countLive(action, job)), progress);
+    }
+
+    // запись по id или null
+    public CompletableFuture<Data> searchByIdAsync(int id) {
+        return submit(job -> measured("searchById", () -> counted(reading(() -> findById(id)))), Progress.NONE);
+    }
+
+    // поиск по имени (как searchByFullName); результат -- количество найденных записей
+    public CompletableFuture<Integer> searchByFullNameAsync(String fullName, Consumer<Data> action, Progress progress) {
+        return submit(job -> measured("searchByFullName", () -> countMatching(fullName, action, job)), progress);
+    }
+
+    public CompletableFuture<int[]> selectAsync(Query query) {
+        return submit(() -> select(query));
+    }
+
+    // МЕТОД 18: выборка по запросу (фильтры и сортировка выполняются по индексам).
+    // Возвращает только упорядоченные id -- 4 байта на строку результата; сами записи
+    // читаются страницами через readRows (так работает таблица в интерфейсе) или потоком через forEach.
+    public int[] select(Query query) throws IOException {
+        return measured("select", () -> {
+            int[] ids = reading(() -> selectIds(query));
+            Metrics.returned(ids.length);
+            return ids;
+        });
+    }
+
+    // записи для строк [from, to) результата select; запись, удаленная после выборки, -- null
+    public List<Data> readRows(int[] ids, int from, int to) throws IOException {
+        return measured("readRows", () -> reading(() -> {
+            List<Data> rows = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                rows.add(counted(findById(ids[i])));
+            }
+            return rows;
+        }));
+    }
+
+    // обход результата запроса страницами; action вызывается вне блокировок БД,
+    // поэтому медленный получатель (запись в сеть, в файл) не задерживает остальных.
+    // Выборка и чтение страниц идут по одному снимку: результат -- БД на момент вызова
+    public void forEach(Query query, Consumer<Data> action) throws IOException {
+        measured("forEach", () -> {
+            ReadView[] pinned = {null};
+            int[] ids = reading(() -> {
+                int[] selected = selectIds(query);
+                pinned[0] = new ReadView(); // под той же блокировкой, что и выборка
+                return selected;
+            });
+            int count = 0;
+            try (ReadView view = pinned[0]) {
+                for (int from = 0; from < ids.length; from += ROWS_PAGE) {
+                    for (Data value : view.readRows(ids, from, Math.min(ids.length, from + ROWS_PAGE))) {
+                        if (value != null) {
+                            action.accept(value);
+                            count++;
+                        }
+                    }
+                }
+            }
+            Metrics.returned(count);
+            return null;
+        });
+    }
+
+    // МЕТОД 19: пакетный импорт (перенос из другой системы, загрузка CSV).
+    // Записи пишутся пакетами по IMPORT_BATCH: строки пакета собираются в один буфер и дописываются
+    // одной записью в канал, индекс id получает все записи пакета одной записью, в индексе по датам
+    // сортируется только сам пакет (уже загруженное не пересортировывается), а fsync делается один раз
+    // на пакет (групповая фиксация).
+    // Записям с id <= 0 id выдаются одним блоком на пакет; записи с id > 0 сохраняют свой id.
+    // Между пакетами блокировка снимается -- БД можно читать во время импорта.
+    public ImportResult importRecords(Iterator<Data> records) throws IOException {
+        return measured("importRecords", () -> {
+            ImportResult result = new ImportResult();
+            int[] ids = new int[IMPORT_BATCH];
+            Data[] values = new Data[IMPORT_BATCH];
+            while (records.hasNext()) {
+                int count = 0;
+                while (count < IMPORT_BATCH && records.hasNext()) {
+                    Data value = writable(records.next());
+                    ids[count] = value.id;
+                    values[count++] = value;
+                }
+                int batch = count;
+                awaitDurable(writing(() -> writeBatch(ids, values, batch, result, Batch.IMPORT)));
+            }
+            return result;
+        });
+    }
+
+    public ImportResult importRecords(Stream<Data> records) throws IOException {
+        return importRecords(records.iterator());
+    }
+
+    // импорт CSV в формате файла БД (id,имя,дата покупки,дата окончания,тренировки).
+    // Строки "-id" (надгробия из журнала) удаляют запись, нечитаемые строки пропускаются и считаются
+    public ImportResult importCsv(Path csv) throws IOException {
+        return measured("importCsv", () -> readCsv(csv));
+    }
+
+    private ImportResult readCsv(Path csv) throws IOException {
+        ImportResult result = new ImportResult();
+        int[] ids = new int[IMPORT_BATCH];
+        Data[] values = new Data[IMPORT_BATCH];
+        try (BufferedReader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            while (line != null) {
+                int count = 0;
+                for (; count < IMPORT_BATCH && line != null; line = in.readLine()) {
+                    line = line.strip();
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        line = RecordLine.strip(line); // файл БД тоже можно импортировать: сумма сверяется и отбрасывается
+                        if (RecordLine.isTransaction(line)) {
+                            continue;
+                        }
+                        if (line.startsWith("-")) {
+                            ids[count] = Integer.parseInt(line.substring(1));
+                            values[count++] = null;
+                        } else {
+                            Data value = Data.fromFileString(line);
+                            ids[count] = value.id;
+                            values[count++] = value;
+                        }
+                    } catch (RuntimeException e) {
+                        result.skipped++;
+                    }
+                }
+                int batch = count;
+                awaitDurable(writing(() -> writeBatch(ids, values, batch, result, Batch.IMPORT)));
+            }
+        }
+        Metrics.read(Files.size(csv));
+        return result;
+    }
+
+    // итог импорта -- одно сообщение вместо сообщения на каждую запись
+    public static final class ImportResult {
+        public int imported; // записей добавлено или обновлено
+        public int deleted; // надгробий применено
+        public int skipped; // нечитаемых строк CSV
+        public int firstId; // первый выданный при импорте id (0, если новых id не выдавалось)
+
+        @Override
+        public String toString() {
+            return "Imported " + imported + " records, deleted " + deleted + ", skipped " + skipped + " malformed lines";
+        }
+    }
+
+    // МЕТОД 20: потоковый экспорт результата запроса в CSV (формат файла БД, без истории изменений)
+    // или в двоичный формат BinaryStore. Записи читаются страницами, файл пишется по мере чтения.
+    // Возвращает количество выгруженных записей
+    public int exportCsv(Query query, Path csv) throws IOException {
+        return measured("exportCsv", () -> {
+            try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+                return export(query, value -> {
+                    writer.write(value.toFileString());
+                    writer.write('\n');
+                });
+            }
+        });
+    }
+
+    public int exportBinary(Query query, Path binary) throws IOException {
+        return measured("exportBinary", () -> {
+            try (BinaryStore store = BinaryStore.create(binary)) {
+                int count = export(query, store::write);
+                store.force();
+                return count;
+            }
+        });
+    }
+
+    private interface RecordWriter {
+        void write(Data value) throws IOException;
+    }
+
+    private int export(Query query, RecordWriter writer) throws IOException {
+        int[] count = {0};
+        IOException[] failure = {null};
+        forEach(query, value -> {
+            if (failure[0] == null) {
+                try {
+                    writer.write(value);
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Metrics.returned(count[0]);
+        return count[0];
+    }
+
+    // МЕТОД 21: отчеты по всем записям -- параллельный обход файла БД на всех ядрах (ParallelScan).
+    // where -- условие по полям записи (см. Where), collector -- что собрать: Collectors.counting(),
+    // mapping(проекция, toList()), groupingBy, summarizingInt и т.п. Списки -- в порядке записей в файле.
+    // Например, действующие абонементы с индивидуальными тренировками:
+    //   database.count(Where.activeOn(LocalDate.now()).and(Where.individualTraining(true)))
+    // Отчет идет по снимку (openView) и не задерживает изменения, которые делаются во время него
+    public <R> R scan(Predicate<Data> where, Collector<Data, ?, R> collector) throws IOException {
+        return measured("scan", () -> {
+            try (ReadView view = openView()) {
+                return view.scan(where, collector);
+            }
+        });
+    }
+
+    public long count(Predicate<Data> where) throws IOException {
+        return measured("count", () -> {
+            long count = scan(where, Collectors.counting());
+            Metrics.returned(count);
+            return count;
+        });
+    }
+
+    // проекция: из каждой подходящей записи берется только нужное (например, Data::id)
+    public <R> List<R> project(Predicate<Data> where, Function<Data, R> projection) throws IOException {
+        return measured("project", () -> {
+            List<R> values = scan(where, Collectors.mapping(projection, Collectors.toList()));
+            Metrics.returned(values.size());
+            return values;
+        });
+    }
+
+    // МЕТОД 22: снимок БД для долгих чтений (ночные отчеты, выгрузки).
+    // Снимок запоминает длину журнала и его отображение на момент открытия. Строки журнала не меняются,
+    // поэтому снимку нужно знать только, какая версия каждой записи тогда была актуальной: для записей,
+    // которые с тех пор не трогали, это текущий индекс id, а перед изменением записи писатель сохраняет
+    // в каждом открытом снимке ее прежнее положение. Снимок читает короткими страницами под блокировкой
+    // чтения, изменения идут между страницами как обычно и в снимок не попадают.
+    // Пока открыт хоть один снимок, сжатие откладывается (старые версии записей нужны снимкам);
+    // удаление БД, восстановление из бэкапа и закрытие дают снимкам свою копию индекса.
+    // Снимок нужно закрыть (try-with-resources) -- после этого мусор снова вычищается сжатием
+    public ReadView openView() throws IOException {
+        return reading(() -> new ReadView());
+    }
+
+    public final class ReadView implements AutoCloseable {
+        private final long length; // журнал до этой длины
+        private final int records; // сколько записей было в БД
+        private final MappedReader mapped; // отображение файла на момент открытия
+        private final IntMap changed = new IntMap(16); // id -> номер в массивах ниже: записи, измененные после открытия
+        private long[] beforeOffsets = new long[16]; // их положение на момент открытия (-1 -- записи не было)
+        private int[] beforeLengths = new int[16];
+        private int changedCount;
+        private IdIndex frozen; // своя копия индекса, если индекс БД заменили целиком
+
+        // под блокировкой чтения
+        private ReadView() {
+            mapped = reader.pin();
+            length = Math.min(index.coveredLength(), mapped.size());
+            records = index.size();
+            views.add(this);
+        }
+
+        // длина журнала, которую видит снимок
+        public long length() {
+            return length;
+        }
+
+        // запись по id на момент снимка или null
+        public Data searchById(int id) throws IOException {
+            return measured("view.searchById", () -> locked(() -> counted(read(id))));
+        }
+
+        // записи для строк [from, to) результата select (одна блокировка на все); записи нет -- null
+        public List<Data> readRows(int[] ids, int from, int to) throws IOException {
+            return locked(() -> {
+                List<Data> rows = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    rows.add(read(ids[i]));
+                }
+                return rows;
+            });
+        }
+
+        // все записи снимка в порядке файла; action вызывается вне блокировок, между страницами
+        public int forEach(Consumer<Data> action) throws IOException {
+            return measured("view.forEach", () -> forEach(action, Job.NONE));
+        }
+
+        // отчет по снимку (см. Database.scan)
+        public <R> R scan(Predicate<Data> where, Collector<Data, ?, R> collector) throws IOException {
+            Metrics.scanned(records); // разбирается каждая актуальная запись
+            Metrics.read(length);
+            try {
+                return ParallelScan.run(this, where, collector);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (views.remove(this) && views.isEmpty()) {
+                lock.readLock().lock();
+                try {
+                    if (opened) {
+                        scheduleCompactionIfNeeded(); // сжатие, отложенное ради снимков
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        }
+
+        MappedReader mapped() {
+            return mapped;
+        }
+
+        // актуальные на момент снимка записи из строк [from, to) -- одной блокировкой чтения.
+        // Возвращает смещение, с которого продолжать
+        long forEachLive(long from, long to, Consumer<Data> action) throws IOException {
+            return locked(() -> mapped.forEachLine(from, to, (offset, start, end) -> {
+                int id = mapped.parseId(start, end);
+                if (id > 0 && offsetOf(id) == offset) {
+                    action.accept(mapped.parseRecord(offset, start, end));
+                }
+            }));
+        }
+
+        private int forEach(Consumer<Data> action, Job job) throws IOException {
+            List<Data> page = new ArrayList<>();
+            long position = 0;
+            int count = 0;
+            while (position < length) {
+                long from = position;
+                page.clear();
+                position = forEachLive(from, Math.min(length, from + VIEW_PAGE), page::add);
+                if (position == from) {
+                    break; // полных строк дальше нет
+                }
+                job.step(position, length);
+                for (Data value : page) {
+                    action.accept(value);
+                }
+                count += page.size();
+            }
+            Metrics.scanned(records);
+            Metrics.returned(count);
+            Metrics.read(length);
+            return count;
+        }
+
+        // индекс читается только под блокировкой чтения; после закрытия БД снимок читает свою копию
+        private <T> T locked(Action<T> action) throws IOException {
+            lock.readLock().lock();
+            try {
+                return action.run();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private Data read(int id) {
+            long offset = offsetOf(id);
+            if (offset < 0) {
+                return null;
+            }
+            int length = lengthOf(id);
+            Metrics.read(length);
+            return mapped.read(offset, length);
+        }
+
+        private long offsetOf(int id) {
+            int slot = changed.get(id);
+            return slot >= 0 ? beforeOffsets[slot] : (frozen != null ? frozen : index).offsetOf(id);
+        }
+
+        private int lengthOf(int id) {
+            int slot = changed.get(id);
+            return slot >= 0 ? beforeLengths[slot] : (frozen != null ? frozen : index).lengthOf(id);
+        }
+
+        // запись id сейчас изменят: запоминаем, где была ее версия (под блокировкой записи)
+        private void preserve(int id) {
+            if (frozen != null || changed.get(id) >= 0) {
+                return;
+            }
+            if (changedCount == beforeOffsets.length) {
+                beforeOffsets = Arrays.copyOf(beforeOffsets, changedCount * 2);
+                beforeLengths = Arrays.copyOf(beforeLengths, changedCount * 2);
+            }
+            beforeOffsets[changedCount] = index.offsetOf(id);
+            beforeLengths[changedCount] = index.lengthOf(id);
+            changed.put(id, changedCount++);
+        }
+    }
+
+    // МЕТОД 23: транзакция -- несколько изменений, которые попадают в БД все вместе или не попадают совсем
+    // (продление абонементов всей группе, перевод тренировок с одного абонемента на другой):
+    //   try (Database.Transaction tx = db.begin()) {
+    //       tx.editValue(...); tx.editValue(...);
+    //       tx.commit();
+    //   }                                          // без commit -- откат
+    // До commit изменения копятся в самой транзакции, БД их не видит (видит searchById транзакции).
+    // commit дописывает их в журнал одним блоком под одной блокировкой записи и ждет одного fsync,
+    // так что продление 5000 абонементов стоит как один пакет импорта, а не как 5000 отдельных изменений.
+    // Перед блоком пишется заголовок с его длиной: если сбой оборвал блок, при открытии БД он отрезается
+    // целиком (RecordLine.verify). Транзакцией пользуется один поток
+    public Transaction begin() throws IOException {
+        ensureOpen();
+        return new Transaction();
+    }
+
+    public final class Transaction implements AutoCloseable {
+        private final Map<Integer, Data> changes = new LinkedHashMap<>(); // id -> новая версия, null -- удаление
+        private final Set<Integer> mustExist = new HashSet<>(); // изменяемые записи из БД: к commit их не должны удалить
+        private boolean finished;
+
+        private Transaction() {
+        }
+
+        // запись с id <= 0 сразу получает id (если транзакцию откатят, этот id пропадет). Возвращает id записи
+        public int addValue(Data value) throws IOException {
+            checkActive();
+            writable(value);
+            if (value.id <= 0) {
+                value = new Data(getNextId(), value.fullName, value.purchaseDate, value.expirationDate, value.individualTraining);
+            }
+            changes.put(value.id, value);
+            mustExist.remove(value.id);
+            return value.id;
+        }
+
+        // false -- записи с таким id нет. Если до commit запись удалят, commit не выполнится (DatabaseException.NotFound)
+        public boolean editValue(int id, Data newValue) throws IOException {
+            checkActive();
+            sameId(id, newValue);
+            writable(newValue);
+            if (changes.containsKey(id)) {
+                if (changes.get(id) == null) {
+                    return false; // удалена в этой же транзакции
+                }
+            } else if (Database.this.searchById(id) != null || reading(() -> archive.contains(id))) { // из архива запись вернется в БД
+                mustExist.add(id);
+            } else {
+                return false;
+            }
+            changes.put(id, newValue);
+            return true;
+        }
+
+        // запись, которой к commit уже нет, просто пропускается
+        public void deleteValueID(int id) {
+            checkActive();
+            changes.put(id, null);
+            mustExist.remove(id);
+        }
+
+        // запись с учетом изменений этой транзакции
+        public Data searchById(int id) throws IOException {
+            if (changes.containsKey(id)) {
+                return changes.get(id);
+            }
+            return Database.this.searchById(id);
+        }
+
+        // сколько изменений в транзакции
+        public int size() {
+            return changes.size();
+        }
+
+        // записывает все изменения; возвращает количество измененных записей
+        public int commit() throws IOException {
+            checkActive();
+            finished = true;
+            if (changes.isEmpty()) {
+                return 0;
+            }
+            return measured("commit", () -> {
+                int[] ids = new int[changes.size()];
+                Data[] values = new Data[changes.size()];
+                boolean[] stripeUsed = new boolean[STRIPES];
+                int count = 0;
+                for (Map.Entry<Integer, Data> change : changes.entrySet()) {
+                    ids[count] = change.getKey();
+                    values[count++] = change.getValue();
+                    stripeUsed[Math.floorMod(change.getKey(), STRIPES)] = true;
+                }
+                // полосы всех записей транзакции -- по возрастанию номера, в одном порядке у всех транзакций (без взаимных блокировок)
+                int locked = 0;
+                try {
+                    for (; locked < STRIPES; locked++) {
+                        if (stripeUsed[locked]) {
+                            stripes[locked].lock();
+                        }
+                    }
+                    int[] written = {0};
+                    Commit commit = writing(() -> {
+                        int kept = 0;
+                        int[] archivedOnly = new int[ids.length]; // удаления записей, которые есть только в архиве
+                        int archivedCount = 0;
+                        for (int i = 0; i < ids.length; i++) {
+                            boolean exists = index.offsetOf(ids[i]) >= 0;
+                            if (mustExist.contains(ids[i]) && !exists && !archive.contains(ids[i])) {
+                                throw new DatabaseException.NotFound("Record " + ids[i] + " was deleted before commit");
+                            }
+                            if (values[i] == null && !exists) {
+                                if (archive.contains(ids[i])) {
+                                    archivedOnly[archivedCount++] = ids[i];
+                                }
+                                continue; // в журнале удалять нечего
+                            }
+                            ids[kept] = ids[i];
+                            values[kept++] = values[i];
+                        }
+                        Commit batch = writeBatch(ids, values, kept, new ImportResult(), Batch.TRANSACTION);
+                        // пометки в архиве станут окончательными, только если транзакция целиком дойдет до диска
+                        written[0] = kept + archive.dropAll(archivedOnly, archivedCount, index.coveredLength());
+                        return batch;
+                    });
+                    awaitDurable(commit);
+                    return written[0];
+                } finally {
+                    while (--locked >= 0) {
+                        if (stripeUsed[locked]) {
+                            stripes[locked].unlock();
+                        }
+                    }
+                }
+            });
+        }
+
+        // отменяет все изменения транзакции
+        public void rollback() {
+            finished = true;
+            changes.clear();
+            mustExist.clear();
+        }
+
+        // транзакция без commit откатывается
+        @Override
+        public void close() {
+            if (!finished) {
+                rollback();
+            }
+        }
+
+        private void checkActive() {
+            if (finished) {
+                throw new IllegalStateException("Transaction is already committed or rolled back");
+            }
+        }
+    }
+
+    // МЕТОД 24: архив давно закончившихся абонементов (ArchiveStore).
+    // Записи, у которых абонемент закончился раньше cutoff, переписываются в сжатый сегмент архива
+    // и удаляются из БД надгробиями (сжатие потом вычистит их из журнала): обычные чтения, поиск,
+    // обходы и индексы работают только с теми, кто еще ходит в клуб. В архиве ищут только по запросу
+    // (searchArchive, searchArchiveById). Продление абонемента (editValue) возвращает запись из архива в БД,
+    // deleteValueID удаляет ее и из архива. Если задан setArchiveAfter (sportclub.archive.days),
+    // перенос раз в час идет в фоне. Возвращает количество перенесенных записей
+    public int archiveExpired(LocalDate cutoff) throws IOException {
+        ensureOpen();
+        return measured("archiveExpired", () -> moveToArchive(cutoff));
+    }
+
+    private int moveToArchive(LocalDate cutoff) throws IOException {
+        int[] ids = ifOpen(lock.readLock(), () -> dateIndex.expiringBefore(cutoff));
+        if (ids == null) {
+            return 0;
+        }
+        Arrays.sort(ids);
+        int moved = 0;
+        for (int from = 0; from < ids.length; from += ARCHIVE_SEGMENT) {
+            // записи -- страницами под блокировкой чтения
+            int to = Math.min(ids.length, from + ARCHIVE_SEGMENT);
+            List<Data> records = new ArrayList<>(to - from);
+            for (int page = from; page < to; page += ROWS_PAGE) {
+                int first = page;
+                int last = Math.min(to, page + ROWS_PAGE);
+                ifOpen(lock.readLock(), () -> {
+                    for (int i = first; i < last; i++) {
+                        Data value = findById(ids[i]);
+                        if (value != null && value.expirationDate.isBefore(cutoff)) {
+                            records.add(value);
+                        }
+                    }
+                    return null;
+                });
+            }
+            if (!opened) {
+                break; // БД закрыли
+            }
+            if (records.isEmpty()) {
+                continue;
+            }
+            ArchiveStore.Segment segment = archive.create(records); // сжатие и запись сегмента -- без блокировок
+            Metrics.written(segment.size());
+            if (ifOpen(lock.writeLock(), () -> {
+                archive.attach(segment);
+                return segment;
+            }) == null) {
+                break;
+            }
+            // теперь записи есть и в архиве, и в БД (в архиве видны только те, которых в БД нет).
+            // Записи, которые с тех пор не меняли, уходят из БД пакетами надгробий, у измененных
+            // (продленных, удаленных) архивная копия выбывает. Сравнивается сама запись, а не ее
+            // положение в журнале: сжатие между пакетами двигает записи, но не меняет их
+            for (int page = 0; page < records.size(); page += IMPORT_BATCH) {
+                int first = page;
+                int last = Math.min(records.size(), page + IMPORT_BATCH);
+                int[] gone = new int[last - first];
+                int[] changed = new int[last - first];
+                int[] counts = {0, 0};
+                Commit commit = ifOpen(lock.writeLock(), () -> {
+                    for (int i = first; i < last; i++) {
+                        int id = records.get(i).id;
+                        Data current = findById(id);
+                        if (current != null && current.toFileString().equals(records.get(i).toFileString())) {
+                            gone[counts[0]++] = id;
+                        } else {
+                            changed[counts[1]++] = id;
+                        }
+                    }
+                    archive.dropAll(changed, counts[1], index.coveredLength());
+                    return writeBatch(gone, new Data[counts[0]], counts[0], new ImportResult(), Batch.ARCHIVE);
+                });
+                awaitDurable(commit);
+                moved += counts[0];
+            }
+        }
+        Metrics.returned(moved);
+        return moved;
+    }
+
+    // архивная запись по id или null (записи, которые есть в БД, здесь не ищутся)
+    public Data searchArchiveById(int id) throws IOException {
+        return measured("searchArchiveById", () -> counted(reading(() -> index.offsetOf(id) >= 0 ? null : archive.get(id))));
+    }
+
+    // обход архива: записи, подходящие под where (см. Where), передаются в action.
+    // Архив распаковывается целиком, но по блоку за одну блокировку чтения. Возвращает количество записей
+    public int searchArchive(Predicate<Data> where, Consumer<Data> action) throws IOException {
+        return measured("searchArchive", () -> {
+            int count = 0;
+            for (int segment = 0; segment < reading(archive::segmentCount); segment++) {
+                int current = segment;
+                int blocks = reading(() -> current < archive.segmentCount() ? archive.blockCount(current) : 0); // архив могли удалить
+                for (int block = 0; block < blocks; block++) {
+                    int currentBlock = block;
+                    List<Data> found = reading(() -> {
+                        List<Data> values = new ArrayList<>();
+                        if (current < archive.segmentCount()) {
+                            archive.forEachInBlock(current, currentBlock, value -> {
+                                // копия, которая еще не ушла из БД (сбой во время переноса), -- не архивная
+                                if (index.offsetOf(value.id) < 0 && where.test(value)) {
+                                    values.add(value);
+                                }
+                            });
+                        }
+                        return values;
+                    });
+                    for (Data value : found) {
+                        action.accept(value);
+                    }
+                    count += found.size();
+                }
+            }
+            Metrics.returned(count);
+            return count;
+        });
+    }
+
+    // сколько записей в архиве
+    public int archivedCount() throws IOException {
+        return reading(this::archivedOnly);
+    }
+
+    // записи, которые есть только в архиве (под блокировкой): копии записей, действующих в журнале, не в счет
+    private int archivedOnly() {
+        return archive.size(id -> index.offsetOf(id) >= 0);
+    }
+
+    // перенос в архив в фоне (поток сжатия): закрытую БД не открывает
+    private void archiveInBackground() {
+        int days = archive_after_days;
+        if (!opened || days < 0) {
+            return;
+        }
+        try {
+            archiveExpired(LocalDate.now().minusDays(days));
+        } catch (IOException e) {
+            // записи остаются в БД, перенесем в следующий раз
+            LOG.log(Level.WARNING, "Archiving failed", e);
+        }
+    }
+
+    // МЕТОД 25: сводка для стойки администратора -- без обхода записей.
+    // Количество записей, записи с индивидуальными тренировками и продажи по месяцам -- готовые счетчики
+    // (StatsIndex), которые меняются на разницу при каждом изменении. Действующие и закончившиеся
+    // абонементы зависят от сегодняшней даты, поэтому считаются по индексу дат (бинарный поиск).
+    // Сводка -- по записям БД; перенесенные в архив в нее не входят, их количество -- отдельно
+    public Stats stats() throws IOException {
+        return measured("stats", () -> reading(() -> {
+            Stats stats = new Stats();
+            stats.members = statsIndex.members();
+            stats.expired = dateIndex.countExpiringBefore(LocalDate.now());
+            stats.active = stats.members - stats.expired;
+            stats.individualTraining = statsIndex.individualTraining();
+            stats.archived = archivedOnly();
+            stats.salesByMonth = statsIndex.salesByMonth();
+            return stats;
+        }));
+    }
+
+    // сводка на момент вызова
+    public static final class Stats {
+        public int members; // записей в БД
+        public int active; // абонемент действует сегодня или закончится позже
+        public int expired; // абонемент уже закончился
+        public int individualTraining; // записей с индивидуальными тренировками
+        public int archived; // записей в архиве (см. archiveExpired)
+        public SortedMap<YearMonth, Integer> salesByMonth; // абонементов по месяцу покупки
+
+        @Override
+        public String toString() {
+            return "Members " + members + " (active " + active + ", expired " + expired + "), individual training "
+                    + individualTraining + ", archived " + archived;
+        }
+    }
+
+    // метрики операций этой БД (они же видны через JMX, см. Metrics)
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    // операции дольше threshold миллисекунд пишутся в журнал sportclub.slow
+    public void setSlowOperationThreshold(long millis) {
+        metrics.setSlowThreshold(millis);
+    }
+
+    // настройка порога сжатия: доля мусора в файле БД (0..1)
+    public void setCompactionThreshold(double threshold, long minGarbageBytes) {
+        compaction_threshold = threshold;
+        compaction_min_garbage = minGarbageBytes;
+    }
+
+    // настройка долговечности изменений (см. Durability)
+    public void setDurability(Durability mode, long groupMillis) {
+        durability = mode;
+        commit_group_millis = groupMillis;
+    }
+
+    // настройка резидентного режима; кеш сразу перестраивается (или освобождается)
+    public void setResidentMode(boolean enabled, long memoryBudgetBytes) throws IOException {
+        lock.writeLock().lock();
+        try {
+            resident_mode = enabled;
+            resident_budget = memoryBudgetBytes;
+            if (opened) {
+                loadCache();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // записи, абонемент которых закончился больше days дней назад, переносятся в архив раз в час (см. archiveExpired);
+    // days < 0 -- фоновый перенос выключен
+    public void setArchiveAfter(int days) {
+        archive_after_days = days;
+    }
+
+    // открыть БД заранее (иначе она открывается при первом обращении): файл сразу блокируется
+    // за этой программой, а ошибки открытия видны до первого запроса
+    public void open() throws IOException {
+        ensureOpen();
+    }
+
+    // закрытие БД: индексы сохраняются, блокировка файла снимается.
+    // После закрытия объект можно использовать снова -- БД откроется при следующем обращении
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!opened) {
+                return;
+            }
+            opened = false; // фоновое сжатие, если оно идет, увидит это и ничего не заменит
+            archiveJob.cancel(false);
+            checkpoint();
+            freezeViews();
+            generation++;
+            markDurable(0);
+            saveLogIndexes();
+            reader.close();
+            closeFiles();
+            processLock.release();
+            lockChannel.close();
+            unregisterMetrics();
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // программа уже завершается
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // открывает БД при первом обращении: блокировка от других процессов и загрузка индексов
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (opened) {
+                return;
+            }
+            lockChannel = FileChannel.open(Paths.get(lock_file), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                processLock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                processLock = null; // БД уже открыта другим объектом Database в этой же программе
+            }
+            if (processLock == null) {
+                lockChannel.close();
+                throw new DatabaseException.Locked("Database is used by another program: " + main_path);
+            }
+            try {
+                loadState();
+            } catch (IOException | RuntimeException e) {
+                processLock.release();
+                lockChannel.close();
+                throw e;
+            }
+            // индексы по имени и датам обновляются только в памяти -- сохраняем их при выходе из программы
+            shutdownHook = new Thread(() -> {
+                lock.readLock().lock();
+                try {
+                    checkpoint();
+                    saveLogIndexes();
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Indexes were not saved", e);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            });
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+            opened = true;
+            archiveJob = flusher.scheduleWithFixedDelay(() -> compactor.execute(this::archiveInBackground),
+                    1, ARCHIVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+            try {
+                async.execute(this::registerMetrics); // первое обращение к JMX -- сотни миллисекунд, открытие их не ждет
+            } catch (RejectedExecutionException e) {
+                // пул занят -- без JMX, metrics() работает и так
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // метрики в JMX: sportclub:type=Database,name="<полный путь к файлу БД>".
+    // Если JMX недоступен, БД работает и без него -- метрики остаются доступны через metrics()
+    private void registerMetrics() {
+        synchronized (metrics) {
+            if (!opened || metricsName != null) {
+                return; // БД успели закрыть
+            }
+            register();
+        }
+    }
+
+    private void register() {
+        try {
+            metricsName = new ObjectName("sportclub:type=Database,name=" + ObjectName.quote(new File(main_path).getAbsolutePath()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Metrics are not available over JMX", e);
+            metricsName = null;
+        }
+    }
+
+    private void unregisterMetrics() {
+        synchronized (metrics) {
+            if (metricsName == null) {
+                return;
+            }
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // уже снято
+            }
+            metricsName = null;
+        }
+    }
+
+    // загрузка индексов, счетчика и кеша по текущему файлу БД (под блокировкой записи).
+    // Пока БД открыта, файл меняет только этот объект, поэтому потом индексы с диска не перечитываются
+    private void loadState() throws IOException {
+        File file = new File(main_path);
+        if (file.exists()) {
+            recoverTail(file);
+        } else {
+            logGeneration = newLogGeneration(); // журнал начнется заново
+        }
+        reader = new MappedReader(file.toPath());
+        reader.refresh();
+        if (file.exists()) {
+            index = new IdIndex(file, new File(index_file)); // если файл БД изменился мимо индекса -- догоняется или перестраивается
+            nameIndex = openLogIndex(new NameIndex(new File(name_index_file)));
+            dateIndex = openLogIndex(new DateIndex(new File(date_index_file)));
+            statsIndex = openLogIndex(new StatsIndex(new File(stats_index_file)));
+        } else {
+            deleteIndexFiles(); // остались от удаленного файла БД
+            index = IdIndex.empty(file, new File(index_file));
+            nameIndex = new NameIndex(new File(name_index_file));
+            dateIndex = new DateIndex(new File(date_index_file));
+            statsIndex = new StatsIndex(new File(stats_index_file));
+        }
+        archive.load(index.coveredLength(), id -> index.offsetOf(id) >= 0); // пометки, чьи строки журнал не пережил, отбрасываются
+        // если файла счетчика нет или он отстал (сбой), он восстанавливается
+        // по максимальному id в индексе, в архиве и по id последней строки журнала
+        int recoveredNext = Math.max(Math.max(index.maxId(), archive.maxId()), tailRecordId()) + 1;
+        sequence = new IdSequence(new File(sequence_file), recoveredNext);
+        loadCache();
+    }
+
+    // индекс по журналу загружается с диска и догоняет журнал; если догонять пришлось, сохраняется заново
+    private <T extends LogIndex> T openLogIndex(T logIndex) throws IOException {
+        if (logIndex.open(reader) && reader.size() > 0) {
+            logIndex.save();
+        }
+        return logIndex;
+    }
+
+    // кеш загружается целиком одним проходом; если записи не помещаются в бюджет памяти --
+    // кеша нет, читаем с диска
+    private void loadCache() throws IOException {
+        cache = null;
+        if (resident_mode) {
+            RecordCache loaded = new RecordCache(resident_budget);
+            boolean[] fits = {true};
+            scanLive(value -> fits[0] = fits[0] && loaded.put(value), Job.NONE);
+            if (fits[0]) {
+                cache = loaded;
+            }
+        }
+    }
+
+    // подменяет файл БД готовым файлом replacement (ATOMIC_MOVE), индексы строятся заново
+    private void replaceDataFile(Path replacement) throws IOException {
+        writing(() -> {
+            freezeViews();
+            reader.close(); // отображение старого файла больше не нужно
+            closeFiles();
+            archive.confirm(); // длины старого журнала в пометках архива больше ничего не значат
+            Files.move(replacement, Paths.get(main_path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generation++;
+            markDurable(0); // новый файл уже на диске, изменения старого больше не нужны
+            deleteIndexFiles(); // файл БД заменен целиком -- индексы строятся заново
+            new File(checkpoint_file).delete(); // и проверяется целиком
+            loadState(); // счетчик перечитается и не опустится ниже уже выданных id
+            return null;
+        });
+    }
+
+    // создает пустой файл БД; false -- файл уже есть
+    private boolean createDataFile() throws IOException {
+        if (!new File(main_path).createNewFile()) {
+            return false;
+        }
+        if (log != null) {
+            log.close(); // открыт на прежний файл, который удалили
+            log = null;
+        }
+        index.save(); // у индекса появляется заголовок, дальше записи в него дописываются
+        reader.refresh();
+        return true;
+    }
+
+    // файл БД для дозаписи (под блокировкой записи): открывается при первом изменении и остается открытым,
+    // пока файл не заменят или не удалят (closeFiles)
+    private FileChannel log() throws IOException {
+        if (log == null) {
+            log = FileChannel.open(Paths.get(main_path), StandardOpenOption.WRITE);
+        }
+        return log;
+    }
+
+    // закрывает файлы, открытые для дозаписи (журнал и индекс id), -- перед заменой или удалением файла БД и при закрытии
+    private void closeFiles() throws IOException {
+        index.close();
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    // надгробие для записи, если она есть (под блокировкой полосы id); null -- записи нет
+    private Commit deleteIfExists(int id) throws IOException {
+        return writing(() -> {
+            if (index.offsetOf(id) < 0) {
+                // запись только в архиве: в журнал писать нечего
+                return archive.drop(id, 0) ? new Commit(generation, 0) : null;
+            }
+            return appendRecord(id, null); // копия в архиве, если есть, удаляется там же
+        });
+    }
+
+    // дописывает в конец журнала новую версию записи (или надгробие, если value == null)
+    // и обновляет индексы и кеш. Вызывается под блокировкой записи; на диск строку сбрасывает awaitDurable
+    private Commit appendRecord(int id, Data value) throws IOException {
+        File file = new File(main_path);
+        if (!file.exists()) {
+            createDataFile();
+        }
+        if (value != null) {
+            sequence.advancePast(id);
+        }
+        byte[] line = RecordLine.encode(value != null ? value.toFileString() : "-" + id);
+        long offset = index.coveredLength();
+        FileChannel channel = log();
+        if (channel.size() > offset) {
+            channel.truncate(offset); // недописанный хвост после сбоя -- отбрасываем
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        Metrics.written(line.length);
+        List<LogIndex> logIndexes = logIndexes();
+        preserve(id);
+        archive.drop(id, offset + line.length); // действует только что записанная версия, архивная копия больше не нужна
+        if (value == null) {
+            index.remove(id, offset, line.length);
+            for (LogIndex logIndex : logIndexes) {
+                logIndex.remove(id);
+            }
+            if (cache != null) {
+                cache.remove(id);
+            }
+        } else {
+            index.put(id, offset, line.length); // запись сразу попадает в индексы
+            for (LogIndex logIndex : logIndexes) {
+                logIndex.put(value);
+            }
+            if (cache != null && !cache.put(value)) {
+                cache = null; // бюджет памяти исчерпан -- дальше читаем с диска
+            }
+        }
+        for (LogIndex logIndex : logIndexes) {
+            logIndex.setCoveredLength(offset + line.length);
+        }
+        reader.refresh(); // читатели сразу видят новую строку
+        scheduleCompactionIfNeeded();
+        return new Commit(generation, offset + line.length);
+    }
+
+    // как пакет пишется в журнал (writeBatch)
+    private enum Batch {
+        IMPORT, // просто строки записей
+        TRANSACTION, // перед пакетом -- заголовок с его длиной: при открытии БД пакет либо целый, либо отрезается
+        ARCHIVE // надгробия записей, только что перенесенных в архив: с заголовком, архивные копии остаются
+    }
+
+    // пакет (под блокировкой записи): values[i] == null -- надгробие для ids[i].
+    // Пакет дописывается в журнал одной записью; на диск его сбрасывает awaitDurable (один fsync на пакет)
+    private Commit writeBatch(int[] ids, Data[] values, int count, ImportResult result, Batch batch) throws IOException {
+        File file = new File(main_path);
+        if (!file.exists()) {
+            createDataFile();
+        }
+        int newIds = 0;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != null && values[i].id <= 0) {
+                newIds++;
+            }
+        }
+        int nextId = newIds > 0 ? sequence.reserve(newIds) : 0; // один блок id на весь пакет
+        if (newIds > 0 && result.firstId == 0) {
+            result.firstId = nextId;
+        }
+        ByteArrayOutputStream block = new ByteArrayOutputStream(count * 64);
+        long start = index.coveredLength();
+        long[] offsets = new long[count]; // пока -- от начала пакета
+        int[] lengths = new int[count];
+        int maxId = 0;
+        for (int i = 0; i < count; i++) {
+            Data value = values[i];
+            if (value != null && value.id <= 0) {
+                value = new Data(nextId++, value.fullName, value.purchaseDate, value.expirationDate, value.individualTraining);
+                ids[i] = value.id;
+                values[i] = value;
+            }
+            byte[] line = RecordLine.encode(value != null ? value.toFileString() : "-" + ids[i]);
+            offsets[i] = block.size();
+            lengths[i] = value != null ? line.length : -line.length; // как в файле индекса: минус -- надгробие
+            block.write(line, 0, line.length);
+            maxId = Math.max(maxId, ids[i]);
+        }
+        if (count == 0) {
+            return null;
+        }
+        sequence.advancePast(maxId);
+        byte[] header = batch != Batch.IMPORT ? RecordLine.transaction(block.size()) : new byte[0];
+        for (int i = 0; i < count; i++) {
+            offsets[i] += start + header.length;
+        }
+        FileChannel channel = log();
+        if (channel.size() > start) {
+            channel.truncate(start); // недописанный хвост после сбоя -- отбрасываем
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(header.length + block.size());
+        buffer.put(header).put(block.toByteArray()).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+        Metrics.written(header.length + block.size());
+        for (int i = 0; i < count; i++) {
+            preserve(ids[i]);
+        }
+        index.putAll(ids, offsets, lengths, count);
+        if (batch != Batch.ARCHIVE) {
+            archive.dropAll(ids, count, index.coveredLength()); // записанная версия действует, архивные копии больше не нужны
+        }
+        List<LogIndex> logIndexes = logIndexes();
+        boolean bulk = count >= BULK_MIN;
+        if (bulk) {
+            for (LogIndex logIndex : logIndexes) {
+                logIndex.beginBulk();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if (values[i] == null) {
+                for (LogIndex logIndex : logIndexes) {
+                    logIndex.remove(ids[i]);
+                }
+                if (cache != null) {
+                    cache.remove(ids[i]);
+                }
+                result.deleted++;
+            } else {
+                for (LogIndex logIndex : logIndexes) {
+                    logIndex.put(values[i]);
+                }
+                if (cache != null && !cache.put(values[i])) {
+                    cache = null; // бюджет памяти исчерпан -- дальше читаем с диска
+                }
+                result.imported++;
+            }
+        }
+        for (LogIndex logIndex : logIndexes) {
+            if (bulk) {
+                logIndex.endBulk();
+            }
+            logIndex.setCoveredLength(index.coveredLength());
+        }
+        reader.refresh();
+        scheduleCompactionIfNeeded();
+        return new Commit(generation, index.coveredLength());
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        long garbage = index.coveredLength() - index.liveBytes();
+        if (garbage >= compaction_min_garbage && garbage > compaction_threshold * index.coveredLength()
+                && views.isEmpty() && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compactLog();
+                } catch (IOException e) {
+                    // журнал остается как был, попробуем сжать после следующих изменений
+                    LOG.log(Level.WARNING, "Compaction failed", e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    // изменение становится долговечным по настройке durability.
+    // Если фоновый fsync (ASYNC) не удался, об этом узнает следующее изменение: его метод бросает исключение,
+    // потому что и оно, и предыдущие изменения могут быть не на диске
+    private void awaitDurable(Commit commit) throws IOException {
+        IOException failure = flushFailure.getAndSet(null);
+        if (failure != null) {
+            throw new IOException("Background fsync failed, recent changes may be lost: " + failure.getMessage(), failure);
+        }
+        if (commit == null || durability == Durability.NONE) {
+            return;
+        }
+        if (durability == Durability.SYNC) {
+            flush(commit);
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(() -> {
+                flushScheduled.set(false);
+                try {
+                    flush(null);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Flush failed", e);
+                    flushFailure.set(e);
+                }
+            }, commit_group_millis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // fsync журнала до commit (null -- до текущего конца). Если fsync уже идет, ждем его: изменение
+    // могло в него попасть, и тогда делать ничего не надо. Иначе первый из ждущих делает fsync сам --
+    // за себя и за всех, кто успел дописать до него (групповая фиксация)
+    private void flush(Commit commit) throws IOException {
+        synchronized (commitLock) {
+            while (flushing && !isDurable(commit)) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for fsync");
+                }
+            }
+            if (isDurable(commit)) {
+                return;
+            }
+            flushing = true;
+        }
+        Commit flushed = null;
+        try {
+            if (commit_group_millis > 0) {
+                Thread.sleep(commit_group_millis); // к этому fsync успеют присоединиться другие изменения
+            }
+            Commit target;
+            FileChannel channel;
+            lock.readLock().lock();
+            try {
+                if (!opened || !new File(main_path).exists()) {
+                    return; // БД закрыта (close сам сбросил журнал) или удалена
+                }
+                target = new Commit(generation, index.coveredLength());
+                channel = log; // null -- в этот файл еще ничего не дописано, он на диске с тех пор, как открыт
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (channel != null) {
+                try {
+                    channel.force(false); // без блокировки БД: дозаписи идут дальше, пока диск занят
+                } catch (ClosedChannelException e) {
+                    return; // файл за это время заменили или БД закрыли -- новый файл уже на диске, старый сбросил close
+                }
+            }
+            flushed = target;
+            if (target.length - checkpointLength >= CHECKPOINT_STEP) {
+                lock.readLock().lock();
+                try {
+                    if (opened && generation == target.generation) {
+                        writeCheckpoint(target.length); // после сбоя проверять придется только то, что дальше
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for fsync");
+        } finally {
+            synchronized (commitLock) {
+                flushing = false;
+                if (flushed != null) {
+                    markDurable(flushed);
+                }
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    // изменение уже на диске: его файл с тех пор заменили целиком (сжатие, восстановление, удаление)
+    // или журнал этого файла сброшен дальше него
+    private boolean isDurable(Commit commit) {
+        return commit != null && (durableGeneration > commit.generation
+                || durableGeneration == commit.generation && durableLength >= commit.length);
+    }
+
+    // текущий журнал на диске до length (под блокировкой)
+    private void markDurable(long length) {
+        markDurable(new Commit(generation, length));
+    }
+
+    private void markDurable(Commit commit) {
+        synchronized (commitLock) {
+            if (commit.generation > durableGeneration || commit.generation == durableGeneration && commit.length > durableLength) {
+                durableGeneration = commit.generation;
+                durableLength = commit.length;
+            }
+        }
+    }
+
+    // сбрасывает журнал на диск и переносит проверенную точку в его конец (при закрытии и выходе из программы)
+    private void checkpoint() throws IOException {
+        File file = new File(main_path);
+        if (!file.exists()) {
+            return;
+        }
+        if (log != null) {
+            log.force(false); // иначе в файл ничего не дописывалось с тех пор, как он открыт, -- он уже на диске
+        }
+        markDurable(index.coveredLength());
+        writeCheckpoint(index.coveredLength());
+    }
+
+    // проверка журнала при открытии: строки после проверенной точки сверяются с контрольными суммами,
+    // рваный хвост после сбоя (недописанная или поврежденная последняя строка) отрезается
+    private void recoverTail(File file) throws IOException {
+        long valid = RecordLine.verify(file, readCheckpoint(file));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() > valid) {
+                LOG.warning("Damaged tail of " + main_path + " was cut off: "
+                        + (channel.size() - valid) + " bytes at offset " + valid);
+                channel.truncate(valid);
+            }
+            channel.force(false); // проверенное -- на диске, при следующем открытии его можно не проверять
+        }
+        writeCheckpoint(valid);
+    }
+
+    // проверенная точка: "длина,crc последних байт перед ней,поколение журнала". Если файла нет, он поврежден
+    // или журнал с тех пор заменили (crc не сходится), проверяется весь журнал и поколение у него новое
+    private long readCheckpoint(File file) {
+        try {
+            String[] fields = Files.readString(Paths.get(checkpoint_file), StandardCharsets.UTF_8).trim().split(",");
+            long length = Long.parseLong(fields[0]);
+            if (length <= file.length() && tailCrc(file.toPath(), length) == Long.parseLong(fields[1])) {
+                logGeneration = fields.length > 2 ? Long.parseLong(fields[2]) : newLogGeneration();
+                return length;
+            }
+        } catch (IOException | RuntimeException e) {
+            // проверяем с начала
+        }
+        logGeneration = newLogGeneration();
+        return 0;
+    }
+
+    // 0 не выдается: так помечены снимки старых версий, с которыми цепочка не продолжается
+    private static long newLogGeneration() {
+        long value;
+        do {
+            value = ThreadLocalRandom.current().nextLong();
+        } while (value == 0);
+        return value;
+    }
+
+    // файл точки без fsync: если он потеряется при сбое, журнал просто проверится с начала
+    private void writeCheckpoint(long length) throws IOException {
+        synchronized (commitLock) {
+            Path temp = Paths.get(checkpoint_file + ".tmp");
+            Files.writeString(temp, length + "," + tailCrc(Paths.get(main_path), length) + "," + logGeneration, StandardCharsets.UTF_8);
+            Files.move(temp, Paths.get(checkpoint_file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointLength = length;
+        }
+    }
+
+    private static long tailCrc(Path file, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(CHECKPOINT_WINDOW, length));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, length - buffer.capacity() + buffer.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+        }
+        buffer.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(buffer);
+        return crc.getValue();
+    }
+
+    // запись, которую можно дописать в журнал: строка журнала -- одна строка файла, поэтому в имени
+    // не должно быть переводов строк, а поля не пустые. Иначе при следующем открытии БД не прочитается
+    private static Data writable(Data value) {
+        if (value.fullName == null || value.purchaseDate == null || value.expirationDate == null) {
+            throw new IllegalArgumentException("Record " + value.id + " has empty fields");
+        }
+        if (value.fullName.indexOf('\n') >= 0 || value.fullName.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Line breaks are not allowed in a name: " + value.fullName);
+        }
+        return value;
+    }
+
+    // новая версия записи id должна иметь тот же id, иначе индекс укажет на строку другой записи
+    private static void sameId(int id, Data value) {
+        if (value.id != id) {
+            throw new IllegalArgumentException("Record id " + value.id + " does not match edited id " + id);
+        }
+    }
+
+    // операция с метриками: время, ошибки, просмотренное и прочитанное/записанное (см. Metrics)
+    private <T> T measured(String operation, Action<T> action) throws IOException {
+        Metrics.Trace trace = metrics.start(operation);
+        try {
+            return action.run();
+        } catch (IOException | RuntimeException e) {
+            if (!(e instanceof CancellationException)) {
+                trace.fail(); // отмена -- не ошибка
+            }
+            throw e;
+        } finally {
+            metrics.finish(trace);
+        }
+    }
+
+    // найденная запись (или ее отсутствие) -- в метрики операции
+    private static Data counted(Data value) {
+        Metrics.returned(value != null ? 1 : 0);
+        return value;
+    }
+
+    private <T> CompletableFuture<T> submit(JobAction<T> action, Progress progress) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Job job = new Job(future, progress);
+        try {
+            async.execute(() -> {
+                if (future.isDone()) {
+                    return; // отменили, пока операция ждала в очереди
+                }
+                try {
+                    future.complete(action.run(job));
+                } catch (CancellationException e) {
+                    future.cancel(false);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // действие под общей блокировкой чтения: такие действия выполняются одновременно
+    private <T> T reading(Action<T> action) throws IOException {
+        ensureOpen();
+        lock.readLock().lock();
+        try {
+            return action.run();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // действие под блокировкой записи: одновременно с ним ничего не читается и не пишется
+    private <T> T writing(Action<T> action) throws IOException {
+        ensureOpen();
+        lock.writeLock().lock();
+        try {
+            return action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // действие под блокировкой для фоновых задач: закрытую БД заново не открывает (тогда null)
+    private <T> T ifOpen(Lock held, Action<T> action) throws IOException {
+        held.lock();
+        try {
+            return opened ? action.run() : null;
+        } finally {
+            held.unlock();
+        }
+    }
+
+    // действие над одной записью: изменения записей из одной полосы id идут по очереди,
+    // из разных полос -- независимо (общей остается только короткая дозапись в журнал).
+    // Полоса берется раньше блокировки чтения/записи, поэтому взаимных блокировок нет
+    private <T> T withKey(int id, Action<T> action) throws IOException {
+        ReentrantLock stripe = stripes[Math.floorMod(id, STRIPES)];
+        stripe.lock();
+        try {
+            return action.run();
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    // обход для getValue: DatabaseException.NotFound, если БД нет; результат -- количество записей
+    private int countLive(Consumer<Data> action, Job job) throws IOException {
+        ReadView pinned = reading(() -> {
+            if (!new File(main_path).exists()) {
+                throw new DatabaseException.NotFound("Database does not exist: " + main_path);
+            }
+            return new ReadView();
+        });
+        try (ReadView view = pinned) {
+            return view.forEach(action, job);
+        }
+    }
+
+    // перед изменением записи ее прежнее положение сохраняется в открытых снимках (под блокировкой записи)
+    private void preserve(int id) {
+        for (ReadView view : views) {
+            view.preserve(id);
+        }
+    }
+
+    // индекс сейчас заменят целиком (удаление, восстановление, закрытие БД) --
+    // снимки дальше читают общую копию текущего (под блокировкой записи)
+    private void freezeViews() {
+        IdIndex copy = null;
+        for (ReadView view : views) {
+            if (view.frozen == null) {
+                copy = copy != null ? copy : index.copy();
+                view.frozen = copy;
+            }
+        }
+    }
+
+    // записи, в имени которых встречается fullName (без учета регистра):
+    // id берутся из индекса по имени, сами записи -- по индексу id (или из кеша)
+    private int countMatching(String fullName, Consumer<Data> action, Job job) throws IOException {
+        return reading(() -> {
+            int[] count = {0};
+            forEachMatching(fullName, value -> {
+                count[0]++;
+                action.accept(value);
+            }, job);
+            return count[0];
+        });
+    }
+
+    private void forEachMatching(String fullName, Consumer<Data> action, Job job) {
+        int[] ids = nameIndex.search(fullName);
+        for (int i = 0; i < ids.length; i++) {
+            if (i % Job.STEP == 0) {
+                job.step(i, ids.length);
+            }
+            Data record = findById(ids[i]);
+            if (record != null) {
+                action.accept(record);
+                Metrics.returned(1);
+            }
+        }
+        job.step(ids.length, ids.length);
+    }
+
+    // id записей под запрос: фильтры пересекаются (каждый дает id по возрастанию), затем сортировка
+    private int[] selectIds(Query query) {
+        int[] ids = null; // null -- фильтров нет, подходят все записи
+        if (query.id != null) {
+            ids = index.offsetOf(query.id) >= 0 ? new int[]{query.id} : new int[0];
+        }
+        if (query.nameContains != null) {
+            ids = intersect(ids, nameIndex.search(query.nameContains));
+        }
+        if (query.purchasedFrom != null || query.purchasedTo != null) {
+            ids = intersect(ids, sorted(dateIndex.purchasedBetween(query.purchasedFrom, query.purchasedTo)));
+        }
+        if (query.expiringFrom != null || query.expiringTo != null) {
+            ids = intersect(ids, sorted(dateIndex.expiringBetween(query.expiringFrom, query.expiringTo)));
+        }
+        if (ids == null) {
+            ids = index.ids();
+            Metrics.scanned(ids.length);
+        }
+        switch (query.order) {
+            case NAME:
+                Integer[] boxed = new Integer[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    boxed[i] = ids[i];
+                }
+                Arrays.sort(boxed, Comparator.comparing((Integer id) -> nameIndex.name(id)).thenComparing(id -> id));
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = boxed[i];
+                }
+                break;
+            case PURCHASE_DATE:
+            case EXPIRATION_DATE:
+                // (день, id) упаковываются в long и сортируются без объектов
+                long[] keys = new long[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    int day = query.order == Query.Order.PURCHASE_DATE ? dateIndex.purchaseDay(ids[i]) : dateIndex.expirationDay(ids[i]);
+                    keys[i] = ((long) day << 32) | (ids[i] & 0xFFFFFFFFL);
+                }
+                Arrays.sort(keys);
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = (int) keys[i];
+                }
+                break;
+            default:
+                break; // все списки id уже по возрастанию
+        }
+        if (query.descending) {
+            for (int i = 0, j = ids.length - 1; i < j; i++, j--) {
+                int swap = ids[i];
+                ids[i] = ids[j];
+                ids[j] = swap;
+            }
+        }
+        return ids;
+    }
+
+    // пересечение двух списков id по возрастанию; null -- "все записи"
+    private static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] sorted(int[] ids) {
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // записи по списку id (через индекс id или кеш)
+    private List<Data> readAll(int[] ids) {
+        List<Data> values = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            Data value = findById(id);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        Metrics.returned(values.size());
+        return values;
+    }
+
+    // обход актуальных версий записей в порядке их расположения в файле.
+    // Строка актуальна, если индекс указывает именно на нее.
+    private void scanLive(Consumer<Data> action, Job job) throws IOException {
+        MappedReader mapped = reader;
+        IdIndex idx = index;
+        long size = mapped.size();
+        int[] lines = {0};
+        int[] live = {0};
+        mapped.forEachLine(0, size, (offset, start, end) -> {
+            if (++lines[0] % Job.STEP == 0) {
+                job.step(offset, size);
+            }
+            int id = mapped.parseId(start, end);
+            if (id > 0 && idx.offsetOf(id) == offset) {
+                action.accept(mapped.parseRecord(offset, start, end));
+                live[0]++;
+            }
+        });
+        job.step(size, size);
+        Metrics.scanned(lines[0]);
+        Metrics.returned(live[0]);
+        Metrics.read(size);
+    }
+
+    // индексы, которые строятся по журналу и обновляются при каждой дописанной строке
+    private List<LogIndex> logIndexes() {
+        return List.of(nameIndex, dateIndex, statsIndex);
+    }
+
+    private void saveLogIndexes() throws IOException {
+        if (new File(main_path).exists()) {
+            for (LogIndex logIndex : logIndexes()) {
+                logIndex.save();
+            }
+        }
+    }
+
+    private void deleteLogIndexFiles() {
+        new File(name_index_file).delete();
+        new File(date_index_file).delete();
+        new File(stats_index_file).delete();
+    }
+
+    private void deleteIndexFiles() {
+        new File(index_file).delete();
+        deleteLogIndexFiles();
+    }
+
+    // id последней полной строки журнала (для надгробия -- id удаленной записи)
+    private int tailRecordId() throws IOException {
+        MappedReader mapped = reader;
+        long end = Math.min(index.coveredLength(), mapped.size());
+        int[] id = {0};
+        long from = Math.max(0, end - 4096);
+        mapped.forEachLine(from, end, (offset, start, lineEnd) -> {
+            int lineId = mapped.parseId(start, lineEnd);
+            if (lineId != Integer.MIN_VALUE && (offset > from || from == 0)) {
+                id[0] = Math.abs(lineId); // первая строка окна может быть обрезана -- ее пропускаем
+            }
+        });
+        return id[0];
+    }
+}
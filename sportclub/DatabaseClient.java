@@ -0,0 +1,257 @@
+package sportclub;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+// Клиент сетевого режима (протокол -- см. DatabaseServer). Один объект -- одно соединение,
+// им можно пользоваться из нескольких потоков. Методы ...Async не ждут ответа: запросы уходят
+// конвейером один за другим, ответы разбирает отдельный поток и завершает их future по порядку.
+// Обычные методы -- те же запросы с ожиданием ответа. Ошибки сервера приходят теми же типами,
+// что и у Database: DatabaseException.NotFound и т.д., неверный запрос -- IllegalArgumentException
+public class DatabaseClient implements AutoCloseable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out; // запись запроса и постановка в очередь ответов -- под его монитором
+    private final Queue<Pending<?>> pending = new ConcurrentLinkedQueue<>(); // запросы, ждущие ответа, по порядку
+    private volatile IOException failure; // соединение разорвано -- все следующие запросы завершаются с ней
+
+    private interface Parser<T> {
+        T parse(String response, BufferedReader in) throws IOException;
+    }
+
+    private static final class Pending<T> {
+        final Parser<T> parser;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Pending(Parser<T> parser) {
+            this.parser = parser;
+        }
+    }
+
+    public DatabaseClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        Thread receiver = new Thread(this::receive, "sportclub-client");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public void ping() throws IOException {
+        await(request("PING", (response, in) -> null));
+    }
+
+    public int getNextId() throws IOException {
+        return await(request("NEXTID", (response, in) -> Integer.parseInt(value(response))));
+    }
+
+    // запись по id или null
+    public Data searchById(int id) throws IOException {
+        return await(searchByIdAsync(id));
+    }
+
+    public CompletableFuture<Data> searchByIdAsync(int id) {
+        return request("GET " + id, (response, in) -> response.equals("NONE") ? null : Data.fromFileString(value(response)));
+    }
+
+    // записи по списку id одним запросом; на месте отсутствующих -- null
+    public List<Data> searchByIds(int... ids) throws IOException {
+        return await(searchByIdsAsync(ids));
+    }
+
+    public CompletableFuture<List<Data>> searchByIdsAsync(int... ids) {
+        StringBuilder line = new StringBuilder("MGET");
+        for (int id : ids) {
+            line.append(' ').append(id);
+        }
+        return request(line.toString(), (response, in) -> records(response, in));
+    }
+
+    public List<Data> searchByFullName(String fullName) throws IOException {
+        return await(request("FIND " + checked(fullName), DatabaseClient::records));
+    }
+
+    // добавление; запись с id <= 0 получает id от сервера. Возвращает id записи
+    public int addValue(Data value) throws IOException {
+        return await(addValueAsync(value));
+    }
+
+    public CompletableFuture<Integer> addValueAsync(Data value) {
+        return request("ADD " + checked(value.toFileString()), (response, in) -> Integer.parseInt(value(response)));
+    }
+
+    // false -- записи с таким id нет
+    public boolean editValue(Data value) throws IOException {
+        return await(editValueAsync(value));
+    }
+
+    public CompletableFuture<Boolean> editValueAsync(Data value) {
+        return request("EDIT " + checked(value.toFileString()), (response, in) -> Boolean.parseBoolean(value(response)));
+    }
+
+    // false -- записи с таким id нет
+    public boolean deleteValueID(int id) throws IOException {
+        return await(deleteValueIDAsync(id));
+    }
+
+    public CompletableFuture<Boolean> deleteValueIDAsync(int id) {
+        return request("DEL " + id, (response, in) -> Boolean.parseBoolean(value(response)));
+    }
+
+    // количество удаленных записей
+    public int deleteValuebyName(String fullName) throws IOException {
+        return await(request("DELNAME " + checked(fullName), (response, in) -> Integer.parseInt(value(response))));
+    }
+
+    // описание созданного снимка
+    public String createBackup() throws IOException {
+        return await(request("BACKUP", (response, in) -> value(response)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        fail(new IOException("Client is closed"));
+        socket.close();
+    }
+
+    // запрос уходит сразу, ответ разберет поток receive
+    private <T> CompletableFuture<T> request(String line, Parser<T> parser) {
+        Pending<T> request = new Pending<>(parser);
+        synchronized (out) {
+            if (failure != null) {
+                request.future.completeExceptionally(failure);
+                return request.future;
+            }
+            pending.add(request);
+            try {
+                out.write(line);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        if (failure != null) {
+            fail(failure); // соединение разорвали, пока запрос вставал в очередь
+        }
+        return request.future;
+    }
+
+    private void receive() {
+        try {
+            String response;
+            while ((response = in.readLine()) != null) {
+                Pending<?> request = pending.poll();
+                if (request == null) {
+                    throw new IOException("Unexpected response: " + response); // например, отказ: слишком много соединений
+                }
+                complete(request, response);
+            }
+            fail(new EOFException("Connection closed by server"));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private <T> void complete(Pending<T> request, String response) throws IOException {
+        if (response.startsWith("ERR ")) {
+            request.future.completeExceptionally(error(response));
+            return;
+        }
+        T result;
+        try {
+            result = request.parser.parse(response, in);
+        } catch (IOException | RuntimeException e) {
+            IOException broken = new IOException("Malformed response: " + response, e); // поток ответов сбился -- дальше читать нельзя
+            request.future.completeExceptionally(broken);
+            throw broken;
+        }
+        request.future.complete(result);
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+        Pending<?> request;
+        while ((request = pending.poll()) != null) {
+            request.future.completeExceptionally(failure);
+        }
+    }
+
+    // "ERR <тип> <сообщение>" -> исключение того же типа, что бросил бы Database
+    private static Exception error(String response) {
+        String rest = response.substring("ERR ".length());
+        int space = rest.indexOf(' ');
+        String type = space < 0 ? rest : rest.substring(0, space);
+        String message = space < 0 ? "" : rest.substring(space + 1);
+        switch (type) {
+            case "NotFound":
+                return new DatabaseException.NotFound(message);
+            case "Locked":
+                return new DatabaseException.Locked(message);
+            case "Damaged":
+                return new DatabaseException.Damaged(message);
+            case "BadRequest":
+                return new IllegalArgumentException(message);
+            default:
+                return new IOException(message);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    // "OK <значение>" -> значение
+    private static String value(String response) {
+        if (!response.startsWith("OK ")) {
+            throw new IllegalArgumentException(response);
+        }
+        return response.substring("OK ".length());
+    }
+
+    // "OK <n>" и n строк записей ("-" -- записи нет)
+    private static List<Data> records(String response, BufferedReader in) throws IOException {
+        int count = Integer.parseInt(value(response));
+        List<Data> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Connection closed by server");
+            }
+            records.add(line.equals("-") ? null : Data.fromFileString(line));
+        }
+        return records;
+    }
+
+    // запрос -- одна строка: перевод строки внутри имени сбил бы весь конвейер
+    private static String checked(String argument) {
+        if (argument.indexOf('\n') >= 0 || argument.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Line breaks are not allowed: " + argument);
+        }
+        return argument;
+    }
+}
@@ -0,0 +1,32 @@
+package sportclub;
+
+import java.io.IOException;
+
+// ошибки БД, которые вызывающему может понадобиться различать по типу:
+// catch (DatabaseException.NotFound e) и т.д. Остальные ошибки ввода-вывода -- обычные IOException
+public class DatabaseException extends IOException {
+    DatabaseException(String message) {
+        super(message);
+    }
+
+    // нет файла БД, бэкапа или снимка
+    public static class NotFound extends DatabaseException {
+        NotFound(String message) {
+            super(message);
+        }
+    }
+
+    // БД уже открыта другой программой (или другим объектом Database в этой)
+    public static class Locked extends DatabaseException {
+        Locked(String message) {
+            super(message);
+        }
+    }
+
+    // файл БД или сегмент бэкапа поврежден (не сходятся контрольные суммы)
+    public static class Damaged extends DatabaseException {
+        Damaged(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,17 +1,29 @@
+package sportclub;
+
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.io.IOException;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 // класс для реализации интерфейса
 public class DatabaseGUI extends JFrame {
-    private Database database;
+    private final Database database;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private RecordTableModel tableModel;
 
     public DatabaseGUI() {
-        database = new Database();
+        this(new Database());
+    }
+
+    // интерфейс к уже созданному объекту БД (путь к файлу задается при создании Database)
+    public DatabaseGUI(Database database) {
+        this.database = database;
         setTitle("Sportclub DB");
         setSize(400, 400); // размер
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -21,14 +33,16 @@ public class DatabaseGUI extends JFrame {
                 "Create DB", "Delete DB", "Open DB",
                 "Add account", "Delete account by ID", "Delete account by Name",
                 "Edit account by ID", "Search by ID", "Search by Name",
-                "Create Backup", "Restore from Backup"
+                "Create Backup", "Restore from Backup",
+                "Import CSV", "Export (CSV / .bin)"
         };
 
         Runnable[] actions = { // действия этих кнопок
                 this::createDatabase, this::deleteDatabase, this::openDatabase,
                 this::addValue, this::deleteValue, this::deleteValueName,
                 this::editValue, this::searchById, this::searchByName,
-                this::createBackup, this::restoreBackup
+                this::createBackup, this::restoreBackup,
+                this::importCsv, this::exportData
         };
         // создаем, используй массив выше
         for (int i = 0; i < buttonNames.length; i++) {
@@ -38,29 +52,28 @@ public class DatabaseGUI extends JFrame {
             add(button);
         }
     }
-    // далее идет реализация каждой кнопки. Используются методы класса ДБ + обработка исключений
+    // далее идет реализация каждой кнопки. Используются методы класса ДБ + обработка исключений.
+    // Все обращения к БД идут в фоне (database.submit / ...Async), а результат
+    // возвращается в поток Swing (onEdt), поэтому окно не зависает на долгих операциях.
+    // Сообщения пользователю составляет интерфейс по результату метода БД
     private void createDatabase() {
-        try {
-            Database.createDatabase(this);
-        } catch (IOException e) {
-            showMessage("Error during the operation: " + e.getMessage());
-        }
+        onEdt(database.submit(database::createDatabase),
+                created -> showMessage(created ? "DB created successfully" : "Error: DB already exists"));
     }
 
     private void deleteDatabase() { // удаление ДБ
-        try {
-            Database.deleteDatabase(this);
-        } catch (IOException e) {
-            showMessage("Error during the operation: " + e.getMessage());
-        }
+        onEdt(database.submit(database::deleteDatabase),
+                deleted -> showMessage(deleted ? "DB deleted successfully." : "DB doesn't exist"));
     }
 
     private void openDatabase() { // открытие БД
-        try {
-            Database.getValue(this);
-        } catch (IOException e) {
-            showMessage("Error during the operation: " + e.getMessage());
-        }
+        onEdt(database.submit(database::exists), exists -> {
+            if (exists) {
+                updateTable(Query.all());
+            } else {
+                showMessage("Database does not exist.");
+            }
+        });
     }
 
     //создание аккаунта.
@@ -101,18 +114,14 @@ public class DatabaseGUI extends JFrame {
                 LocalDate purchaseDate = LocalDate.parse(purchaseDateStr, Data.DATE_FORMATTER);
                 LocalDate expirationDate = LocalDate.parse(expirationDateStr, Data.DATE_FORMATTER);
                 boolean individualTraining = Boolean.parseBoolean(individualTrainingStr);
-                Data record = null;
-                try {
-                    record = new Data(Database.getNextId(this), fullName, purchaseDate, expirationDate, individualTraining);
-                } catch (IOException ex) {
-                    throw new RuntimeException(ex);
-                }
-                try {
-                    Database.addValue(this, record);
+                onEdt(database.submit(() -> {
+                    Data record = new Data(database.getNextId(), fullName, purchaseDate, expirationDate, individualTraining);
+                    database.addValue(record);
+                    return record;
+                }), record -> {
                     dialog.dispose();
-                } catch (IOException ex) {
-                    showMessage("Error during the operation " + ex.getMessage());
-                }
+                    showMessage("Data added without errors"); // сообщение об успехе ввода
+                });
             }
         });
 
@@ -126,11 +135,8 @@ public class DatabaseGUI extends JFrame {
 
         if (idStr != null) {
             int id = Integer.parseInt(idStr);
-            try {
-                Database.deleteValueID(this, id);
-            } catch (IOException e) {
-                showMessage("Error during the operation " + e.getMessage());
-            }
+            onEdt(database.submit(() -> database.deleteValueID(id)),
+                    deleted -> showMessage(deleted ? "Data deleted without errors" : "Data cannot be found"));
         }
     }
 
@@ -138,11 +144,8 @@ public class DatabaseGUI extends JFrame {
         String fullName = JOptionPane.showInputDialog(this, "Enter name to delete:");
 
         if (fullName != null) {
-            try {
-                Database.deleteValuebyName(this, fullName);
-            } catch (IOException e) {
-                showMessage("Error during the operation " + e.getMessage());
-            }
+            onEdt(database.submit(() -> database.deleteValuebyName(fullName)),
+                    deleted -> showMessage(deleted > 0 ? "data deleted: " + deleted : "data not found."));
         }
     }
 
@@ -152,8 +155,7 @@ public class DatabaseGUI extends JFrame {
 
         if (idStr != null) {
             int id = Integer.parseInt(idStr);
-            try {
-                Data currentRecord = Database.searchById(this, id);
+            onEdt(database.searchByIdAsync(id), currentRecord -> {
                 if (currentRecord != null) {
                     JDialog dialog = new JDialog(this, "Edit ", true);
                     dialog.setLayout(new GridLayout(5, 2));
@@ -198,12 +200,10 @@ public class DatabaseGUI extends JFrame {
                             LocalDate expirationDate = LocalDate.parse(expirationDateStr, Data.DATE_FORMATTER);
                             boolean individualTraining = Boolean.parseBoolean(individualTrainingStr);
                             Data newRecord = new Data(id, fullName, purchaseDate, expirationDate, individualTraining);
-                            try {
-                                Database.editValue(this, id, newRecord);
+                            onEdt(database.submit(() -> database.editValue(id, newRecord)), edited -> {
                                 dialog.dispose();
-                            } catch (IOException ex) {
-                                showMessage("Error during the operation: " + ex.getMessage());
-                            }
+                                showMessage(edited ? "Data edited without errors" : "Data cannot be found");
+                            });
                         }
                     });
 
@@ -213,9 +213,7 @@ public class DatabaseGUI extends JFrame {
                 } else {
                     showMessage("Account with ID " + id + " not found.");
                 }
-            } catch (IOException e) {
-                showMessage("Error during the operation " + e.getMessage());
-            }
+            });
         }
     }
     // поиск по ключу
@@ -224,16 +222,12 @@ public class DatabaseGUI extends JFrame {
 
         if (idStr != null) {
             int id = Integer.parseInt(idStr);
-            try {
-                Data record = Database.searchById(this, id);
-                if (record != null) {
-                    updateTable(record.toFileString());
-                } else {
-                    updateTable(""); // пустая табличка если не найдено ничего
+            onEdt(database.searchByIdAsync(id), record -> {
+                if (record == null) {
+                    showMessage("Record not found.");
                 }
-            } catch (IOException e) {
-                showMessage("Error during the operation" + e.getMessage());
-            }
+                updateTable(Query.all().id(id)); // пустая табличка если не найдено ничего
+            });
         }
     }
     // поиск по имени
@@ -241,67 +235,120 @@ public class DatabaseGUI extends JFrame {
         String fullName = JOptionPane.showInputDialog(this, "Enter name to search:");
 
         if (fullName != null) {
-            StringBuilder records = new StringBuilder();
-            try {
-                Database.searchByFullName(this, fullName, records);
-                if (records.length() > 0) {
-                    updateTable(records.toString());
-                } else {
-                    updateTable(""); // пустая табличка если не найдено ничего
-                }
-            } catch (IOException e) {
-                showMessage("Error during the operation " + e.getMessage());
-            }
+            updateTable(Query.all().nameContains(fullName)); // пустая табличка если не найдено ничего
         }
     }
 
     private void createBackup() {
-        try {
-            Database.createBackup(this);
-        } catch (IOException e) {
-            showMessage("Error during the operation " + e.getMessage());
-        }
+        onEdt(database.submit(database::createBackup),
+                snapshot -> showMessage("Backup created " + snapshot + ", copied " + snapshot.copiedBytes() + " bytes"));
     }
 
+    // восстановление: выбираем снимок из списка (по умолчанию -- последний)
     private void restoreBackup() {
-        try {
-            Database.restoreFromBackup(this);
-        } catch (IOException e) {
-            showMessage("Error during the operation " + e.getMessage());
+        onEdt(database.submit(database::listBackups), snapshots -> {
+            if (snapshots.isEmpty()) {
+                onEdt(database.submit(database::restoreFromBackup), // бэкап старого формата, если он есть
+                        result -> showMessage("DB updated from backup "));
+                return;
+            }
+            Object[] choices = snapshots.toArray();
+            Object choice = JOptionPane.showInputDialog(this, "Restore backup:", "Restore from Backup",
+                    JOptionPane.QUESTION_MESSAGE, null, choices, choices[choices.length - 1]);
+            if (choice != null) {
+                int id = ((BackupStore.Snapshot) choice).id;
+                onEdt(database.submit(() -> database.restoreSnapshot(id)),
+                        snapshot -> showMessage("DB updated from backup " + snapshot));
+            }
+        });
+    }
+
+    // импорт CSV одним пакетом: одно итоговое сообщение на весь файл
+    private void importCsv() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            Path file = chooser.getSelectedFile().toPath();
+            onEdt(database.submit(() -> database.importCsv(file)), result -> showMessage(result.toString()));
         }
     }
+
+    // выгрузка всех записей: файл с расширением .bin -- в двоичном формате, иначе CSV
+    private void exportData() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+            Path file = chooser.getSelectedFile().toPath();
+            boolean binary = file.getFileName().toString().endsWith(".bin");
+            onEdt(database.submit(() -> binary ? database.exportBinary(Query.all(), file) : database.exportCsv(Query.all(), file)),
+                    count -> showMessage("Exported " + count + " records"));
+        }
+    }
+
+    // результат фоновой операции обрабатывается в потоке Swing; ошибка показывается сообщением,
+    // отмененная операция просто ничего не показывает
+    private <T> void onEdt(CompletableFuture<T> future, Consumer<T> action) {
+        future.whenCompleteAsync((result, error) -> {
+            if (error == null) {
+                action.accept(result);
+            } else {
+                showError(error);
+            }
+        }, SwingUtilities::invokeLater);
+    }
+
+    private void showError(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof CancellationException)) {
+            showMessage("Error during the operation: " + cause.getMessage());
+        }
+    }
+
     // публичные методы
-    // отображение сообщения (окна с сообщением)
+    // отображение сообщения (окна с сообщением). Можно вызывать из любого потока:
+    // методы БД сообщают о результате из фонового потока, а окно показывается в потоке Swing
     public void showMessage(String message) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> showMessage(message));
+            return;
+        }
         JOptionPane.showMessageDialog(this, message);
     }
 
-    // обновление таблички для актуализации данным
-    public void updateTable(String records) {
-        String[] columnNames = {"ID", "Full Name", "Purchase Date", "Expiration Date", "Individual Training"};
-        String[][] data = new String[0][];
-
-        if (records != null && !records.isEmpty()) {
-            String[] rows = records.split("\n");
-            data = new String[rows.length][];
-            for (int i = 0; i < rows.length; i++) {
-                data[i] = rows[i].split(",");
-            }
+    // табличка с результатом запроса. Строки подгружаются страницами по мере прокрутки,
+    // щелчок по заголовку сортирует, поле сверху фильтрует по имени (Enter) -- все это делает БД
+    public void updateTable(Query query) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> updateTable(query));
+            return;
         }
-
-        tableModel = new DefaultTableModel(data, columnNames);
+        tableModel = new RecordTableModel(database, query, this::showError);
         table = new JTable(tableModel);
-        JScrollPane scrollPane = new JScrollPane(table);
+        RecordTableModel model = tableModel;
+        JTable shown = table;
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                // столбцы можно перетаскивать: номер на экране переводится в номер столбца модели
+                model.sortBy(shown.convertColumnIndexToModel(shown.columnAtPoint(e.getPoint())));
+            }
+        });
+        JTextField filter = new JTextField(query.nameContains != null ? query.nameContains : "");
+        filter.addActionListener(e -> model.filterByName(filter.getText()));
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(new JLabel("Name filter: "), BorderLayout.WEST);
+        filterPanel.add(filter, BorderLayout.CENTER);
 
         JFrame tableFrame = new JFrame("Database values");
         tableFrame.setSize(800, 600);
-        tableFrame.add(scrollPane);
+        tableFrame.add(filterPanel, BorderLayout.NORTH);
+        tableFrame.add(new JScrollPane(table), BorderLayout.CENTER);
         tableFrame.setVisible(true);
     }
 
+    // путь к файлу БД можно передать первым аргументом
     public static void main(String[] args) {
+        Database database = args.length > 0 ? new Database(args[0]) : new Database();
         SwingUtilities.invokeLater(() -> {
-            DatabaseGUI gui = new DatabaseGUI();
+            DatabaseGUI gui = new DatabaseGUI(database);
             gui.setVisible(true);
         });
     }
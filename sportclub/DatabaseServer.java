@@ -0,0 +1,213 @@
+package sportclub;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Сетевой режим: файлом БД владеет одна программа (сервер), остальные -- стойки администраторов,
+// биллинг -- работают с ней по сети через DatabaseClient, а не копируют файл друг другу.
+//
+// Протокол строковый, UTF-8, одна строка -- один запрос:
+//   PING                  -> OK
+//   NEXTID                -> OK <id>
+//   GET <id>              -> OK <запись> | NONE
+//   MGET <id> <id> ...    -> OK <n>, затем n строк: запись или "-", если ее нет
+//   FIND <часть ФИО>      -> OK <n>, затем n записей
+//   ADD <запись>          -> OK <id> (запись с id <= 0 получает id от сервера)
+//   EDIT <запись>         -> OK true | OK false (записи нет)
+//   DEL <id>              -> OK true | OK false
+//   DELNAME <часть ФИО>   -> OK <сколько удалено>
+//   BACKUP                -> OK <снимок>
+// Запись -- строка в формате файла БД (Data.toFileString). Ошибка -- ERR <тип> <сообщение>,
+// тип -- NotFound, Locked, Damaged (как у DatabaseException), BadRequest или Error.
+//
+// Запросы можно слать, не дожидаясь ответов (конвейер): ответы идут в том же порядке, а в сеть
+// сбрасываются пачкой, когда сервер обработал все, что клиент успел прислать.
+// На каждое соединение -- свой поток, соединений не больше sportclub.server.connections.
+// Проверки доступа нет: по умолчанию сервер слушает только localhost, для локальной сети --
+// -Dsportclub.server.host=0.0.0.0
+public class DatabaseServer implements AutoCloseable {
+    private static final int MAX_CONNECTIONS = Integer.getInteger("sportclub.server.connections", 64);
+
+    private final Database database;
+    private final ServerSocket listener;
+    private final ThreadPoolExecutor workers;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+
+    // port 0 -- любой свободный порт (см. port())
+    public DatabaseServer(Database database, InetAddress address, int port) throws IOException {
+        this.database = database;
+        listener = new ServerSocket(port, 50, address);
+        workers = new ThreadPoolExecutor(0, MAX_CONNECTIONS, 30, TimeUnit.SECONDS, new SynchronousQueue<>(), task -> {
+            Thread thread = new Thread(task, "sportclub-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        acceptor = new Thread(this::accept, "sportclub-server");
+        acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        acceptor.start();
+    }
+
+    public int port() {
+        return listener.getLocalPort();
+    }
+
+    // ждет, пока сервер не закроют
+    public void awaitClose() throws InterruptedException {
+        acceptor.join();
+    }
+
+    // закрывает все соединения; сама БД остается открытой -- ее закрывает тот, кто ее создал
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+        workers.shutdown();
+    }
+
+    private void accept() {
+        while (!listener.isClosed()) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (IOException e) {
+                return; // сервер закрыли
+            }
+            connections.add(socket);
+            try {
+                socket.setTcpNoDelay(true); // ответы и так уходят пачками, ждать еще незачем
+                workers.execute(() -> serve(socket));
+            } catch (IOException | RejectedExecutionException e) {
+                refuse(socket);
+            }
+        }
+    }
+
+    private void refuse(Socket socket) {
+        try (socket) {
+            socket.getOutputStream().write("ERR Error Too many connections\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // клиент уже отключился
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // одно соединение: запросы по порядку, ответ сбрасывается в сеть, только когда
+    // следующего запроса во входном буфере нет (иначе он допишется в ту же пачку)
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(respond(line));
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // клиент отключился или сервер закрыли
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    // ответ собирается целиком, поэтому ошибка посреди FIND не оставит в потоке половину ответа
+    private String respond(String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1);
+        try {
+            return execute(command, argument);
+        } catch (DatabaseException e) {
+            return error(e.getClass().getSimpleName(), e);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return error("BadRequest", e);
+        } catch (IOException | RuntimeException e) {
+            return error("Error", e);
+        }
+    }
+
+    private String execute(String command, String argument) throws IOException {
+        switch (command) {
+            case "PING":
+                return "OK\n";
+            case "NEXTID":
+                return "OK " + database.getNextId() + "\n";
+            case "GET": {
+                Data value = database.searchById(Integer.parseInt(argument));
+                return value != null ? "OK " + value.toFileString() + "\n" : "NONE\n";
+            }
+            case "MGET": {
+                String[] words = argument.isEmpty() ? new String[0] : argument.split(" ");
+                int[] ids = new int[words.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = Integer.parseInt(words[i]);
+                }
+                StringBuilder response = new StringBuilder("OK ").append(ids.length).append('\n');
+                for (Data value : database.readRows(ids, 0, ids.length)) { // вся пачка -- под одной блокировкой чтения
+                    response.append(value != null ? value.toFileString() : "-").append('\n');
+                }
+                return response.toString();
+            }
+            case "FIND": {
+                StringBuilder records = new StringBuilder();
+                int count = database.searchByFullName(argument, value -> records.append(value.toFileString()).append('\n'));
+                return "OK " + count + "\n" + records;
+            }
+            case "ADD": {
+                Data value = Data.fromFileString(argument);
+                if (value.id <= 0) {
+                    value.id = database.getNextId();
+                }
+                database.addValue(value);
+                return "OK " + value.id + "\n";
+            }
+            case "EDIT": {
+                Data value = Data.fromFileString(argument);
+                return "OK " + database.editValue(value.id, value) + "\n";
+            }
+            case "DEL":
+                return "OK " + database.deleteValueID(Integer.parseInt(argument)) + "\n";
+            case "DELNAME":
+                return "OK " + database.deleteValuebyName(argument) + "\n";
+            case "BACKUP":
+                return "OK " + database.createBackup() + "\n";
+            default:
+                throw new IllegalArgumentException("Unknown command: " + command);
+        }
+    }
+
+    private static String error(String type, Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return "ERR " + type + " " + message.replace('\n', ' ').replace('\r', ' ') + "\n";
+    }
+
+    // запуск: java -cp file-database.jar sportclub.DatabaseServer [файл БД] [порт]
+    public static void main(String[] args) throws Exception {
+        Database database = args.length > 0 ? new Database(args[0]) : new Database();
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("sportclub.server.port", 7654);
+        InetAddress address = InetAddress.getByName(System.getProperty("sportclub.server.host", "localhost"));
+        database.open(); // файл сразу за сервером: второй сервер на ту же БД не запустится
+        DatabaseServer server = new DatabaseServer(database, address, port);
+        server.start();
+        System.out.println("Database server on " + address.getHostAddress() + ":" + server.port());
+        server.awaitClose(); // до Ctrl+C; индексы сохранит обработчик завершения Database
+    }
+}
@@ -0,0 +1,441 @@
+package sportclub;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Индекс по датам покупки и окончания абонемента (sportclub.didx).
+// Для каждой даты хранятся пары (день от эпохи, id), упакованные в long и отсортированные (DateRun):
+// диапазон дат -- это бинарные поиски, а количество записей в диапазоне -- разность позиций,
+// без чтения самих записей. Для удаления старых пар хранятся даты каждой записи по id.
+class DateIndex extends LogIndex {
+    private static final int MAGIC = 0x53444958; // "SDIX"
+
+    private final IntMap slots = new IntMap(1024); // id -> слот в массивах дат
+    private int[] purchaseDays = new int[1024];
+    private int[] expirationDays = new int[1024];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    private final DateRun byPurchase = new DateRun();
+    private final DateRun byExpiration = new DateRun();
+
+    public DateIndex(File file) {
+        super(file, MAGIC);
+    }
+
+    @Override
+    public void put(Data value) {
+        int purchase = (int) value.purchaseDate.toEpochDay();
+        int expiration = (int) value.expirationDate.toEpochDay();
+        int slot = slots.get(value.id);
+        if (slot >= 0) {
+            if (purchaseDays[slot] == purchase && expirationDays[slot] == expiration) {
+                return; // даты не менялись
+            }
+            byPurchase.remove(purchaseDays[slot], value.id);
+            byExpiration.remove(expirationDays[slot], value.id);
+        } else {
+            slot = newSlot(value.id);
+        }
+        purchaseDays[slot] = purchase;
+        expirationDays[slot] = expiration;
+        byPurchase.insert(purchase, value.id);
+        byExpiration.insert(expiration, value.id);
+    }
+
+    @Override
+    public void remove(int id) {
+        int slot = slots.remove(id);
+        if (slot < 0) {
+            return;
+        }
+        byPurchase.remove(purchaseDays[slot], id);
+        byExpiration.remove(expirationDays[slot], id);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // пакет (импорт, транзакция): пары пакета копятся как есть, в endBulk сортируется только пакет
+    // и вливается в индекс одним проходом
+    @Override
+    public void beginBulk() {
+        byPurchase.beginBulk();
+        byExpiration.beginBulk();
+    }
+
+    @Override
+    public void endBulk() {
+        byPurchase.endBulk();
+        byExpiration.endBulk();
+    }
+
+    // id записей с датой покупки в [from, to] в порядке возрастания даты (null -- без границы с этой стороны)
+    public int[] purchasedBetween(LocalDate from, LocalDate to) {
+        return byPurchase.range(day(from, Long.MIN_VALUE), day(to, Long.MAX_VALUE));
+    }
+
+    public int countPurchasedBetween(LocalDate from, LocalDate to) {
+        return byPurchase.count(day(from, Long.MIN_VALUE), day(to, Long.MAX_VALUE));
+    }
+
+    // id записей с датой окончания в [from, to] в порядке возрастания даты (null -- без границы с этой стороны)
+    public int[] expiringBetween(LocalDate from, LocalDate to) {
+        return byExpiration.range(day(from, Long.MIN_VALUE), day(to, Long.MAX_VALUE));
+    }
+
+    // id записей, у которых абонемент закончился раньше day
+    public int[] expiringBefore(LocalDate day) {
+        return byExpiration.range(Integer.MIN_VALUE, day.toEpochDay() - 1);
+    }
+
+    public int countExpiringBefore(LocalDate day) {
+        return byExpiration.count(Integer.MIN_VALUE, day.toEpochDay() - 1);
+    }
+
+    public int countExpiringBetween(LocalDate from, LocalDate to) {
+        return byExpiration.count(day(from, Long.MIN_VALUE), day(to, Long.MAX_VALUE));
+    }
+
+    private static long day(LocalDate date, long open) {
+        return date != null ? date.toEpochDay() : open;
+    }
+
+    // день от эпохи для даты покупки/окончания записи; Integer.MIN_VALUE, если записи нет
+    public int purchaseDay(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? Integer.MIN_VALUE : purchaseDays[slot];
+    }
+
+    public int expirationDay(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? Integer.MIN_VALUE : expirationDays[slot];
+    }
+
+    @Override
+    protected void clear() {
+        slots.clear();
+        freeCount = 0;
+        slotCount = 0;
+        byPurchase.clear();
+        byExpiration.clear();
+    }
+
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(slots.size());
+        for (int i = 0; i < slots.capacity(); i++) {
+            if (slots.isUsed(i)) {
+                int slot = slots.valueAt(i);
+                out.writeInt(slots.keyAt(i));
+                out.writeInt(purchaseDays[slot]);
+                out.writeInt(expirationDays[slot]);
+            }
+        }
+    }
+
+    // при загрузке пары складываются подряд и сортируются один раз
+    @Override
+    protected void read(DataInputStream in) throws IOException {
+        clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            int slot = newSlot(id);
+            purchaseDays[slot] = in.readInt();
+            expirationDays[slot] = in.readInt();
+            byPurchase.load(purchaseDays[slot], id);
+            byExpiration.load(expirationDays[slot], id);
+        }
+        byPurchase.loaded();
+        byExpiration.loaded();
+    }
+
+    private int newSlot(int id) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+        if (slot == purchaseDays.length) {
+            purchaseDays = Arrays.copyOf(purchaseDays, slot * 2);
+            expirationDays = Arrays.copyOf(expirationDays, slot * 2);
+        }
+        slots.put(id, slot);
+        return slot;
+    }
+
+    // пары (день, id) по возрастанию: большой отсортированный массив base и две небольшие поправки к нему --
+    // пары, добавленные после последнего слияния, и пары из base, которые с тех пор удалены.
+    // Изменение сдвигает только поправку, а не весь массив; когда поправки разрастаются больше mergeLimit,
+    // они вливаются в base одним линейным проходом. Запрос смотрит во все три массива
+    private static class DateRun {
+        private static final int MERGE_MIN = 1024;
+        // после пакета поправки вливаются в base, только когда они больше 1/BULK_MERGE ее размера:
+        // импорт (пакет за пакетом) переписывает base не после каждого пакета, а когда она вырастет
+        // на эту долю -- каждая пара переписывается O(1) раз, а не столько раз, сколько пакетов после нее.
+        // Следующее одиночное изменение сольет поправки по обычному порогу
+        private static final int BULK_MERGE = 16;
+
+        private SortedRun base = new SortedRun();
+        private SortedRun added = new SortedRun(); // этих пар нет в base
+        private SortedRun removed = new SortedRun(); // эти пары есть в base, но уже удалены
+        private final SortedRun bulkAdded = new SortedRun(); // пакет: пары без сортировки
+        private final SortedRun bulkRemoved = new SortedRun();
+        private boolean bulk;
+
+        void insert(int day, int id) {
+            long key = key(day, id);
+            if (bulk) {
+                bulkAdded.add(key);
+                return;
+            }
+            if (!removed.remove(key)) {
+                added.insert(key);
+            }
+            mergeIfNeeded(mergeLimit());
+        }
+
+        void remove(int day, int id) {
+            long key = key(day, id);
+            if (bulk) {
+                bulkRemoved.add(key);
+                return;
+            }
+            if (!added.remove(key) && base.contains(key)) {
+                removed.insert(key);
+            }
+            mergeIfNeeded(mergeLimit());
+        }
+
+        void beginBulk() {
+            bulk = true;
+        }
+
+        // пакет сортируется (k log k) и вместе с поправками сводится в новые поправки: у каждой пары
+        // считается, сколько раз ее добавили и удалили. +1 -- пары нет в base, но она есть; -1 -- пара
+        // из base удалена; 0 -- изменения взаимно погасились (добавили и удалили в одном пакете и т.п.)
+        void endBulk() {
+            bulk = false;
+            if (bulkAdded.size == 0 && bulkRemoved.size == 0) {
+                return;
+            }
+            bulkAdded.sort();
+            bulkRemoved.sort();
+            if (removed.size == 0 && bulkRemoved.size == 0) {
+                added = SortedRun.merge(added, bulkAdded); // только добавления (импорт): сводить нечего
+                bulkAdded.clear();
+                mergeIfNeeded(Math.max(mergeLimit(), base.size / BULK_MERGE));
+                return;
+            }
+            SortedRun plus = SortedRun.merge(added, bulkAdded);
+            SortedRun minus = SortedRun.merge(removed, bulkRemoved);
+            bulkAdded.clear();
+            bulkRemoved.clear();
+            added = new SortedRun(plus.size);
+            removed = new SortedRun(minus.size);
+            int p = 0;
+            int m = 0;
+            while (p < plus.size || m < minus.size) {
+                long key = m == minus.size || p < plus.size && plus.keys[p] < minus.keys[m] ? plus.keys[p] : minus.keys[m];
+                int net = 0;
+                for (; p < plus.size && plus.keys[p] == key; p++) {
+                    net++;
+                }
+                for (; m < minus.size && minus.keys[m] == key; m++) {
+                    net--;
+                }
+                if (net > 0) {
+                    added.add(key);
+                } else if (net < 0) {
+                    removed.add(key);
+                }
+            }
+            mergeIfNeeded(Math.max(mergeLimit(), base.size / BULK_MERGE));
+        }
+
+        // загрузка с диска: пары складываются в base подряд и сортируются один раз
+        void load(int day, int id) {
+            base.add(key(day, id));
+        }
+
+        void loaded() {
+            base.sort();
+        }
+
+        void clear() {
+            base.clear();
+            added.clear();
+            removed.clear();
+            bulkAdded.clear();
+            bulkRemoved.clear();
+            bulk = false;
+        }
+
+        int count(long fromDay, long toDay) {
+            long from = from(fromDay);
+            long to = to(toDay);
+            return Math.max(0, base.count(from, to) - removed.count(from, to) + added.count(from, to));
+        }
+
+        // id пар с днем в [fromDay, toDay] по возрастанию (дня, затем id): base без удаленных вперемешку с добавленными
+        int[] range(long fromDay, long toDay) {
+            long from = from(fromDay);
+            long to = to(toDay);
+            int b = base.lowerBound(from);
+            int baseEnd = Math.max(b, base.lowerBound(to));
+            int r = removed.lowerBound(from);
+            int removedEnd = Math.max(r, removed.lowerBound(to));
+            int a = added.lowerBound(from);
+            int addedEnd = Math.max(a, added.lowerBound(to));
+            int[] ids = new int[(baseEnd - b) - (removedEnd - r) + (addedEnd - a)];
+            int count = 0;
+            for (; b < baseEnd; b++) {
+                long key = base.keys[b];
+                if (r < removedEnd && removed.keys[r] == key) {
+                    r++;
+                    continue;
+                }
+                for (; a < addedEnd && added.keys[a] < key; a++) {
+                    ids[count++] = (int) added.keys[a];
+                }
+                ids[count++] = (int) key;
+            }
+            for (; a < addedEnd; a++) {
+                ids[count++] = (int) added.keys[a];
+            }
+            return ids;
+        }
+
+        // поправки, при которых вставка еще дешевле слияния: сдвиг поправки -- O(limit),
+        // слияние -- O(размера base) раз в limit изменений, поэтому limit ~ корень из размера
+        private int mergeLimit() {
+            return Math.max(MERGE_MIN, (int) Math.sqrt(base.size) * 4);
+        }
+
+        private void mergeIfNeeded(int limit) {
+            if (added.size + removed.size <= limit) {
+                return;
+            }
+            SortedRun merged = new SortedRun(base.size - removed.size + added.size);
+            int a = 0;
+            int r = 0;
+            for (int b = 0; b < base.size; b++) {
+                long key = base.keys[b];
+                if (r < removed.size && removed.keys[r] == key) {
+                    r++;
+                    continue;
+                }
+                for (; a < added.size && added.keys[a] < key; a++) {
+                    merged.add(added.keys[a]);
+                }
+                merged.add(key);
+            }
+            for (; a < added.size; a++) {
+                merged.add(added.keys[a]);
+            }
+            base = merged;
+            added.clear();
+            removed.clear();
+        }
+
+        // день в старших 32 битах, id (без знака) в младших: сортировка по дню, затем по id
+        // границы диапазона ключей; дни хранятся в int, поэтому дальние границы (открытые, LocalDate.MIN/MAX) обрезаются
+        private static long from(long fromDay) {
+            return Math.max(fromDay, Integer.MIN_VALUE) << 32;
+        }
+
+        private static long to(long toDay) {
+            return (Math.min(toDay, Integer.MAX_VALUE - 1) + 1) << 32;
+        }
+
+        private static long key(int day, int id) {
+            return ((long) day << 32) | (id & 0xFFFFFFFFL);
+        }
+    }
+
+    // отсортированный массив ключей (пока add -- в порядке добавления, до sort)
+    private static class SortedRun {
+        private long[] keys;
+        private int size;
+
+        SortedRun() {
+            this(1024);
+        }
+
+        SortedRun(int capacity) {
+            keys = new long[Math.max(16, capacity)];
+        }
+
+        void insert(long key) {
+            int position = lowerBound(key);
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            keys[position] = key;
+            size++;
+        }
+
+        // false -- такого ключа нет
+        boolean remove(long key) {
+            int position = lowerBound(key);
+            if (position < size && keys[position] == key) {
+                System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+                size--;
+                return true;
+            }
+            return false;
+        }
+
+        boolean contains(long key) {
+            int position = lowerBound(key);
+            return position < size && keys[position] == key;
+        }
+
+        void add(long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+
+        void sort() {
+            Arrays.sort(keys, 0, size);
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        // ключей в [from, to)
+        int count(long from, long to) {
+            return Math.max(0, lowerBound(to) - lowerBound(from));
+        }
+
+        // первая позиция, где ключ >= key
+        int lowerBound(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // слияние двух отсортированных массивов (повторы сохраняются)
+        static SortedRun merge(SortedRun a, SortedRun b) {
+            SortedRun merged = new SortedRun(a.size + b.size);
+            int i = 0;
+            int j = 0;
+            while (i < a.size || j < b.size) {
+                merged.add(j == b.size || i < a.size && a.keys[i] <= b.keys[j] ? a.keys[i++] : b.keys[j++]);
+            }
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Индекс id -> (смещение, длина) актуальной версии записи в файле БД.
+// Хранится рядом с БД (sportclub.idx), чтобы поиск по ключу был одним позиционным чтением,
+// а не бинпоиском по файлу. Формат файла индекса:
+//   заголовок: magic (int), версия (int), сколько байт БД покрыто индексом (long)
+//   далее записи фиксированного размера: id (int), смещение (long), длина строки вместе с \n (int)
+// Новые записи дописываются в конец, поэтому обновление индекса не переписывает весь файл.
+// Отрицательная длина означает удаление записи ("надгробие" в журнале БД).
+class IdIndex {
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 16;
+
+    private final File dataFile;
+    private final File indexFile;
+    private FileChannel channel; // файл индекса, открытый для дозаписи (null -- еще не открыт, см. write())
+
+    private final IntMap slots; // id -> номер слота в массивах ниже
+    private long[] offsets;
+    private int[] lengths;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+
+    private long coveredLength; // до какого байта файл БД учтен в индексе
+    private long liveBytes; // сколько байт файла занимают актуальные версии записей
+
+    // интерфейс для обхода строк файла БД вместе с их смещениями
+    interface LineVisitor {
+        void visit(long offset, byte[] line, int length) throws IOException;
+    }
+
+    public IdIndex(File dataFile, File indexFile) throws IOException {
+        this(dataFile, indexFile, 1024);
+        if (!load()) {
+            rebuild(); // индекса нет или он поврежден -- строим заново одним проходом
+        }
+    }
+
+    private IdIndex(File dataFile, File indexFile, int expectedSize) {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        slots = new IntMap(expectedSize);
+        offsets = new long[Math.max(expectedSize, 16)];
+        lengths = new int[offsets.length];
+    }
+
+    // пустой индекс без чтения с диска: заполняется вручную (например, при сжатии БД) и сохраняется save()
+    static IdIndex empty(File dataFile, File indexFile) {
+        return new IdIndex(dataFile, indexFile, 1024);
+    }
+
+    // копия состояния в памяти; в файл индекса копия ничего не пишет
+    public IdIndex copy() {
+        IdIndex copy = new IdIndex(dataFile, null, slots.size());
+        for (int i = 0; i < slots.capacity(); i++) {
+            if (slots.isUsed(i)) {
+                int slot = slots.valueAt(i);
+                copy.putInMemory(slots.keyAt(i), offsets[slot], lengths[slot]);
+            }
+        }
+        copy.coveredLength = coveredLength;
+        return copy;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public long coveredLength() {
+        return coveredLength;
+    }
+
+    public long liveBytes() {
+        return liveBytes;
+    }
+
+    // все id по возрастанию
+    public int[] ids() {
+        int[] ids = new int[slots.size()];
+        int count = 0;
+        for (int i = 0; i < slots.capacity(); i++) {
+            if (slots.isUsed(i)) {
+                ids[count++] = slots.keyAt(i);
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    public int maxId() {
+        int maxId = 0;
+        for (int i = 0; i < slots.capacity(); i++) {
+            if (slots.isUsed(i)) {
+                maxId = Math.max(maxId, slots.keyAt(i));
+            }
+        }
+        return maxId;
+    }
+
+    // смещение строки с данным id или -1, если такой записи нет
+    public long offsetOf(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? -1 : offsets[slot];
+    }
+
+    public int lengthOf(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? -1 : lengths[slot];
+    }
+
+    // проверка актуальности: если файл БД дописали мимо индекса -- дочитываем хвост,
+    // если файл стал короче или был переписан -- перестраиваем индекс целиком
+    public void sync() throws IOException {
+        long length = dataFile.exists() ? dataFile.length() : 0;
+        if (length == coveredLength) {
+            return;
+        }
+        if (length > coveredLength && endsWithNewLine(coveredLength)) {
+            catchUp();
+        } else {
+            rebuild();
+        }
+    }
+
+    // новая версия записи добавлена в конец файла БД -- дописываем ее в индекс
+    public void put(int id, long offset, int length) throws IOException {
+        putInMemory(id, offset, length);
+        append(id, offset, length);
+    }
+
+    // в конец файла БД добавлено "надгробие" записи
+    public void remove(int id, long offset, int length) throws IOException {
+        removeInMemory(id);
+        append(id, offset, -length);
+    }
+
+    // пакет строк, дописанных в файл БД одним блоком (импорт): все записи индекса -- одной записью в файл.
+    // Отрицательная длина -- надгробие
+    public void putAll(int[] ids, long[] offsets, int[] lengths, int count) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_SIZE);
+        for (int i = 0; i < count; i++) {
+            if (lengths[i] < 0) {
+                removeInMemory(ids[i]);
+            } else {
+                putInMemory(ids[i], offsets[i], lengths[i]);
+            }
+            entries.putInt(ids[i]).putLong(offsets[i]).putInt(lengths[i]);
+            coveredLength = Math.max(coveredLength, offsets[i] + Math.abs(lengths[i]));
+        }
+        write(entries);
+    }
+
+    // полное перестроение индекса одним проходом по файлу БД
+    public void rebuild() throws IOException {
+        clear();
+        coveredLength = scan(dataFile, 0, this::apply);
+        save();
+    }
+
+    // записывает индекс целиком во временный файл и подменяет им старый
+    public void save() throws IOException {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(coveredLength);
+            for (int i = 0; i < slots.capacity(); i++) {
+                if (slots.isUsed(i)) {
+                    int slot = slots.valueAt(i);
+                    out.writeInt(slots.keyAt(i));
+                    out.writeLong(offsets[slot]);
+                    out.writeInt(lengths[slot]);
+                }
+            }
+            out.flush();
+            stream.getChannel().force(true); // на диске до переименования, иначе после сбоя -- пустой индекс
+        }
+        close(); // открыт на прежний файл -- следующая дозапись откроет новый
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // закрывает файл индекса, открытый для дозаписи; индекс в памяти остается, дозапись откроет файл снова
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // обход всех полных строк файла начиная с from; возвращает смещение конца последней полной строки
+    static long scan(File file, long from, LineVisitor visitor) throws IOException {
+        if (!file.exists()) {
+            return from;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            in.skipNBytes(from);
+            byte[] line = new byte[256];
+            int length = 0;
+            long lineStart = from;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = (byte) b;
+                if (b == '\n') {
+                    visitor.visit(lineStart, line, length);
+                    lineStart += length;
+                    length = 0;
+                }
+            }
+            return lineStart; // недописанный хвост без \n в индекс не попадает
+        }
+    }
+
+    // id -- первое поле строки; у "надгробия" id записан со знаком минус.
+    // Для пустых и нечитаемых строк возвращается Integer.MIN_VALUE
+    static int parseId(byte[] line, int length) {
+        int id = 0;
+        int i = 0;
+        boolean negative = length > 0 && line[0] == '-';
+        if (negative) {
+            i++;
+        }
+        int digits = 0;
+        for (; i < length && line[i] >= '0' && line[i] <= '9'; i++, digits++) {
+            id = id * 10 + (line[i] - '0');
+        }
+        if (digits == 0) {
+            return Integer.MIN_VALUE;
+        }
+        return negative ? -id : id;
+    }
+
+    // применяет строку журнала к индексу в памяти
+    void apply(long offset, byte[] line, int length) {
+        int id = parseId(line, length);
+        if (id == Integer.MIN_VALUE) {
+            return;
+        }
+        if (id < 0) {
+            removeInMemory(-id);
+        } else {
+            putInMemory(id, offset, length);
+        }
+    }
+
+    void putInMemory(int id, long offset, int length) {
+        int slot = slots.get(id);
+        if (slot < 0) {
+            slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+            if (slot == offsets.length) {
+                offsets = Arrays.copyOf(offsets, slot * 2);
+                lengths = Arrays.copyOf(lengths, slot * 2);
+            }
+            slots.put(id, slot);
+        } else {
+            liveBytes -= lengths[slot];
+        }
+        offsets[slot] = offset;
+        lengths[slot] = length;
+        liveBytes += length;
+    }
+
+    void setCoveredLength(long coveredLength) {
+        this.coveredLength = coveredLength;
+    }
+
+    private void removeInMemory(int id) {
+        int slot = slots.remove(id);
+        if (slot < 0) {
+            return;
+        }
+        liveBytes -= lengths[slot];
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void append(int id, long offset, int length) throws IOException {
+        coveredLength = offset + Math.abs(length);
+        write(ByteBuffer.allocate(ENTRY_SIZE).putInt(id).putLong(offset).putInt(length));
+    }
+
+    // записи индекса -- в конец файла, покрытая длина -- в заголовок. Файл открывается один раз
+    // и остается открытым до save() или close(), а не на каждую запись
+    private void write(ByteBuffer entries) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        entries.flip();
+        long end = channel.size();
+        while (entries.hasRemaining()) {
+            channel.write(entries, end + entries.position());
+        }
+        ByteBuffer covered = ByteBuffer.allocate(8).putLong(0, coveredLength);
+        while (covered.hasRemaining()) {
+            channel.write(covered, 8 + covered.position());
+        }
+    }
+
+    private boolean load() throws IOException {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        long fileLength = indexFile.length();
+        if (fileLength < HEADER_SIZE || (fileLength - HEADER_SIZE) % ENTRY_SIZE != 0) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            coveredLength = in.readLong();
+            long entries = (fileLength - HEADER_SIZE) / ENTRY_SIZE;
+            for (long i = 0; i < entries; i++) {
+                int id = in.readInt();
+                long offset = in.readLong();
+                int length = in.readInt();
+                if (length < 0) {
+                    removeInMemory(id);
+                } else {
+                    putInMemory(id, offset, length);
+                }
+            }
+        }
+        sync();
+        return true;
+    }
+
+    private void catchUp() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.seek(raf.length());
+            coveredLength = scan(dataFile, coveredLength, (offset, line, length) -> {
+                int id = parseId(line, length);
+                if (id != Integer.MIN_VALUE) {
+                    apply(offset, line, length);
+                    raf.writeInt(Math.abs(id));
+                    raf.writeLong(offset);
+                    raf.writeInt(id < 0 ? -length : length);
+                }
+            });
+            raf.seek(8);
+            raf.writeLong(coveredLength);
+        }
+    }
+
+    // индекс можно дочитывать только с границы строки
+    private boolean endsWithNewLine(long position) throws IOException {
+        if (position == 0) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r")) {
+            raf.seek(position - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private void clear() {
+        slots.clear();
+        freeCount = 0;
+        slotCount = 0;
+        coveredLength = 0;
+        liveBytes = 0;
+    }
+}
@@ -0,0 +1,79 @@
+package sportclub;
+
+import java.io.*;
+
+// Счетчик id, сохраняемый рядом с БД (sportclub.seq).
+// На диск пишется не каждый выданный id, а верхняя граница уже зарезервированного блока:
+// после сбоя счетчик продолжает с этой границы, поэтому id никогда не выдаются повторно
+// (возможны только пропуски). Формат файла: magic (int), граница (int).
+class IdSequence {
+    private static final int MAGIC = 0x53534551; // "SSEQ"
+    private static final int PREFETCH = 64; // сколько id резервируется за одну запись на диск
+
+    private final File file;
+    private int next;
+    private int limit; // все id меньше limit уже учтены в файле
+
+    // recoveredNext -- следующий id по данным самой БД (максимальный id и последняя запись журнала)
+    public IdSequence(File file, int recoveredNext) throws IOException {
+        this.file = file;
+        next = Math.max(load(), recoveredNext);
+        limit = next;
+    }
+
+    public synchronized int next() throws IOException {
+        return reserve(1);
+    }
+
+    // резервирует блок из count подряд идущих id и возвращает первый из них
+    public synchronized int reserve(int count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+        if ((long) next + count > Integer.MAX_VALUE) {
+            throw new DatabaseException("Id sequence is exhausted");
+        }
+        if (next + count > limit) {
+            store((int) Math.min((long) next + Math.max(count, PREFETCH), Integer.MAX_VALUE)); // у самого конца блок короче
+        }
+        int first = next;
+        next += count;
+        return first;
+    }
+
+    // id мог быть задан извне (например, при импорте) -- следующий выданный должен быть больше.
+    // После Integer.MAX_VALUE выдавать нечего: счетчик не переходит в отрицательные id
+    public synchronized void advancePast(int id) throws IOException {
+        if (id == Integer.MAX_VALUE) {
+            throw new DatabaseException("Id sequence is exhausted: record " + id + " has the largest possible id");
+        }
+        if (id >= next) {
+            next = id + 1;
+            if (next > limit) {
+                store(next);
+            }
+        }
+    }
+
+    public void delete() {
+        file.delete();
+    }
+
+    private int load() throws IOException {
+        if (!file.exists() || file.length() != 8) {
+            return 1; // файла нет или он поврежден -- счетчик восстановится по данным БД
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC ? in.readInt() : 1;
+        }
+    }
+
+    private void store(int newLimit) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(MAGIC);
+            raf.writeInt(newLimit);
+            raf.getChannel().force(false); // граница должна быть на диске до выдачи id из блока
+        }
+        limit = newLimit;
+    }
+}
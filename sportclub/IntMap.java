@@ -0,0 +1,136 @@
+package sportclub;
+
+import java.util.Arrays;
+
+// Хеш-таблица int -> int с открытой адресацией (линейное пробирование).
+// Ключи не упаковываются в Integer, поэтому на каждый id не создается лишних объектов.
+// Значения -- обычно номера слотов в "колоночных" массивах владельца таблицы.
+class IntMap {
+    private static final int FREE = Integer.MIN_VALUE; // такого id в БД не бывает
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, FREE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // возвращает значение по ключу или -1, если ключа нет
+    public int get(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE) {
+            throw new IllegalArgumentException("Unsupported key: " + key);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2); // держим заполненность не больше 50%
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    // удаляет ключ и возвращает его значение (или -1).
+    // Следующие элементы цепочки сдвигаются назад, поэтому "надгробия" не нужны.
+    public int remove(int key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != FREE) {
+            if (keys[i] == key) {
+                int old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    // обход таблицы: for (i < capacity()) if (isUsed(i)) keyAt(i) / valueAt(i)
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean isUsed(int i) {
+        return keys[i] != FREE;
+    }
+
+    public int keyAt(int i) {
+        return keys[i];
+    }
+
+    public int valueAt(int i) {
+        return values[i];
+    }
+
+    private void shiftBack(int gap) {
+        int mask = keys.length - 1;
+        int i = (gap + 1) & mask;
+        while (keys[i] != FREE) {
+            int home = hash(keys[i]) & mask;
+            // элемент переносим в "дырку", если его домашняя ячейка не дальше дырки (по кругу)
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[gap] = FREE;
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[newCapacity];
+        values = new int[newCapacity];
+        Arrays.fill(keys, FREE);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9; // перемешиваем биты, т.к. id идут подряд
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,117 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Общая часть вспомогательных индексов, которые строятся по журналу БД (имена, даты и т.п.).
+// Индекс хранится в своем файле вместе с длиной файла БД, которую он уже учел.
+// При открытии индекс догоняет журнал с этого места (проигрывая новые строки),
+// а если файл БД короче или был переписан -- строится заново одним проходом.
+// Сохраняется целиком через временный файл, поэтому на диске он либо старый, либо новый.
+abstract class LogIndex {
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final int magic;
+    private final int version; // версия формата: файл другой версии не читается, индекс строится заново
+    private long coveredLength; // до какого байта файл БД учтен в индексе
+
+    protected LogIndex(File file, int magic) {
+        this(file, magic, VERSION);
+    }
+
+    protected LogIndex(File file, int magic, int version) {
+        this.file = file;
+        this.magic = magic;
+        this.version = version;
+    }
+
+    // новая версия записи (старая версия с тем же id, если была, заменяется)
+    public abstract void put(Data value);
+
+    public abstract void remove(int id);
+
+    protected abstract void clear();
+
+    // пакет изменений (импорт): между beginBulk и endBulk индекс может откладывать
+    // упорядочивание и сделать его один раз в конце; запросы к индексу -- только после endBulk
+    public void beginBulk() {
+    }
+
+    public void endBulk() {
+    }
+
+    protected abstract void write(DataOutputStream out) throws IOException;
+
+    protected abstract void read(DataInputStream in) throws IOException;
+
+    public long coveredLength() {
+        return coveredLength;
+    }
+
+    // вызывается после каждой дописанной в журнал строки
+    public void setCoveredLength(long coveredLength) {
+        this.coveredLength = coveredLength;
+    }
+
+    // загрузка с диска и догон журнала; возвращает true, если что-то пришлось проиграть
+    public boolean open(MappedReader mapped) throws IOException {
+        if (!load()) {
+            clear();
+            coveredLength = 0;
+        }
+        return sync(mapped);
+    }
+
+    public boolean sync(MappedReader mapped) throws IOException {
+        long size = mapped.size();
+        if (size == coveredLength) {
+            return false;
+        }
+        if (size < coveredLength || !mapped.isLineStart(coveredLength)) {
+            clear();
+            coveredLength = 0;
+        }
+        coveredLength = mapped.forEachLine(coveredLength, size, (offset, start, end) -> {
+            int id = mapped.parseId(start, end);
+            if (id < 0 && id != Integer.MIN_VALUE) {
+                remove(-id);
+            } else if (id > 0) {
+                put(mapped.parseRecord(offset, start, end));
+            }
+        });
+        return true;
+    }
+
+    public void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(coveredLength);
+            write(out);
+            out.flush();
+            stream.getChannel().force(true); // на диске до переименования, иначе после сбоя -- пустой индекс
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean load() throws IOException {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != magic || in.readInt() != version) {
+                return false;
+            }
+            coveredLength = in.readLong();
+            read(in);
+            return true;
+        } catch (EOFException | StreamCorruptedException e) {
+            clear(); // файл обрезан или не сходится сам с собой -- строим индекс заново
+            return false;
+        }
+    }
+}
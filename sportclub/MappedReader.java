@@ -0,0 +1,290 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDate;
+
+// Чтение файла БД через отображение в память (MappedByteBuffer).
+// Строки и поля разбираются прямо из отображенных байтов, без Scanner/readLine и без
+// построчного выделения строк: в String превращается только имя (UTF-8), когда оно нужно.
+// Если файл вырос или был заменен (сжатие, восстановление из бэкапа), refresh() отображает его заново.
+// Одно отображение не бывает больше 2 ГБ, поэтому файл отображается кусками по CHUNK байт, а смещения -- long:
+// размер файла не ограничен. Строка, которая пересекает границу кусков (редкость), разбирается из копии.
+class MappedReader implements Closeable {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK = 1L << CHUNK_BITS; // 1 ГБ
+    private static final long MASK = CHUNK - 1;
+
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer[] chunks; // null -- файл не отображен
+    private long size;
+    private Object fileKey; // идентификатор файла (inode): меняется при атомарной замене файла
+
+    interface LineHandler {
+        // start/end -- границы строки в файле без \n (и без \r)
+        void line(long offset, long start, long end) throws IOException;
+    }
+
+    public MappedReader(Path path) {
+        this.path = path;
+    }
+
+    // отображение соответствует текущему состоянию файла; возвращает размер файла
+    public long refresh() throws IOException {
+        if (!Files.exists(path)) {
+            close();
+            return 0;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Object key = attributes.fileKey();
+        if (chunks != null && attributes.size() == size && (key == null || key.equals(fileKey))) {
+            return size;
+        }
+        boolean sameFile = channel != null && key != null && key.equals(fileKey);
+        if (!sameFile) {
+            close();
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        long newSize = channel.size();
+        MappedByteBuffer[] mapped = new MappedByteBuffer[(int) ((newSize + MASK) >>> CHUNK_BITS)];
+        // файл только дописывается: полные куски прежнего отображения остаются, заново отображается хвост.
+        // Массив каждый раз новый -- копии для снимков (pin) продолжают видеть свой
+        int kept = sameFile && newSize >= size ? (int) (size >>> CHUNK_BITS) : 0;
+        System.arraycopy(chunks != null ? chunks : mapped, 0, mapped, 0, kept);
+        for (int i = kept; i < mapped.length; i++) {
+            long from = (long) i << CHUNK_BITS;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(CHUNK, newSize - from));
+        }
+        chunks = mapped;
+        size = newSize;
+        fileKey = key;
+        return size;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    // копия текущего отображения для снимка БД: refresh() и close() этого объекта на нее не влияют,
+    // а старое отображение живет, пока копия нужна, -- даже если файл БД за это время заменили
+    public MappedReader pin() {
+        MappedReader pinned = new MappedReader(path);
+        pinned.chunks = chunks;
+        pinned.size = size;
+        pinned.fileKey = fileKey;
+        return pinned;
+    }
+
+    // обход полных строк в диапазоне [from, to); недописанный хвост без \n пропускается.
+    // Возвращает смещение конца последней обработанной строки
+    public long forEachLine(long from, long to, LineHandler handler) throws IOException {
+        long position = from;
+        long end = Math.min(to, size);
+        while (position < end) {
+            long newLine = indexOfNewLine(position);
+            if (newLine < 0) {
+                break;
+            }
+            long lineEnd = newLine;
+            if (lineEnd > position && get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > position) {
+                handler.line(position, position, lineEnd);
+            }
+            position = newLine + 1;
+        }
+        return position;
+    }
+
+    // начало первой строки, которая начинается не раньше offset (или size, если таких строк нет)
+    public long nextLineStart(long offset) {
+        long position = Math.min(offset, size);
+        if (isLineStart(position)) {
+            return position;
+        }
+        long newLine = indexOfNewLine(position);
+        return newLine < 0 ? size : newLine + 1;
+    }
+
+    // с этого смещения начинается строка (файл можно дочитывать отсюда)
+    public boolean isLineStart(long offset) {
+        return offset == 0 || (offset <= size && get(offset - 1) == '\n');
+    }
+
+    // id из первого поля строки (у надгробия -- со знаком минус), Integer.MIN_VALUE для мусора
+    public int parseId(long start, long end) {
+        ByteBuffer line = line(start, Math.min(end, start + 12)); // знак и 10 цифр -- дальше id не бывает
+        return parseId(line, 0, line.limit());
+    }
+
+    public Data parse(long start, long end) {
+        return parse(line(start, end));
+    }
+
+    // то же при проигрывании журнала (догон индексов, обходы): нечитаемая строка -- DatabaseException.Damaged
+    public Data parseRecord(long offset, long start, long end) throws DatabaseException.Damaged {
+        try {
+            return parse(start, end);
+        } catch (RuntimeException e) {
+            throw new DatabaseException.Damaged("Malformed record at offset " + offset + " of " + path + ": " + e.getMessage());
+        }
+    }
+
+    // запись по смещению и длине из индекса -- без системных вызовов, прямо из отображения
+    public Data read(long offset, int length) {
+        long end = offset + length;
+        while (end > offset && (get(end - 1) == '\n' || get(end - 1) == '\r')) {
+            end--;
+        }
+        return parse(offset, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks = null; // сами отображения освободятся сборщиком мусора
+        size = 0;
+        fileKey = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private byte get(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & MASK));
+    }
+
+    // первый \n не раньше from; -1, если его нет до конца файла
+    private long indexOfNewLine(long from) {
+        long position = from;
+        while (position < size) {
+            MappedByteBuffer chunk = chunks[(int) (position >>> CHUNK_BITS)];
+            long chunkStart = position & ~MASK;
+            for (int i = (int) (position & MASK); i < chunk.limit(); i++) {
+                if (chunk.get(i) == '\n') {
+                    return chunkStart + i;
+                }
+            }
+            position = chunkStart + chunk.limit();
+        }
+        return -1;
+    }
+
+    // строка [start, end) одним буфером: срез куска отображения или копия, если строка пересекает границу кусков
+    private ByteBuffer line(long start, long end) {
+        MappedByteBuffer chunk = chunks[(int) (start >>> CHUNK_BITS)];
+        int from = (int) (start & MASK);
+        int length = (int) (end - start);
+        if (from + length <= chunk.limit()) {
+            return chunk.slice(from, length);
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = get(start + i);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static Data parse(ByteBuffer line) {
+        int start = 0;
+        int end = content(line, line.limit());
+        int last = lastIndexOf(line, start, end);
+        int second = lastIndexOf(line, start, last);
+        int third = lastIndexOf(line, start, second);
+        int first = indexOf(line, start, end);
+        if (first < 0 || third <= first) {
+            throw new IllegalArgumentException("Malformed record: " + text(line, start, end));
+        }
+        LocalDate purchaseDate = date(line, third + 1, second);
+        LocalDate expirationDate = date(line, second + 1, last);
+        if (purchaseDate == null || expirationDate == null) {
+            return Data.fromFileString(text(line, start, end)); // даты в нестандартном виде -- разбираем как раньше
+        }
+        return new Data(parseId(line, start, end), text(line, first + 1, third), purchaseDate, expirationDate,
+                line.get(last + 1) == 't' || line.get(last + 1) == 'T');
+    }
+
+    private static int parseId(ByteBuffer line, int start, int end) {
+        boolean negative = start < end && line.get(start) == '-';
+        int i = negative ? start + 1 : start;
+        int id = 0;
+        int digits = 0;
+        for (; i < end; i++, digits++) {
+            byte b = line.get(i);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            id = id * 10 + (b - '0');
+        }
+        if (digits == 0) {
+            return Integer.MIN_VALUE;
+        }
+        return negative ? -id : id;
+    }
+
+    // конец записи без контрольной суммы; сумма не сходится -- запись повреждена
+    private static int content(ByteBuffer line, int end) {
+        int content = RecordLine.contentEnd(line, 0, end);
+        if (content < 0) {
+            throw new IllegalArgumentException("Checksum mismatch: " + text(line, 0, end));
+        }
+        return content;
+    }
+
+    // дата вида dd.MM.yyyy; null, если формат другой
+    private static LocalDate date(ByteBuffer line, int start, int end) {
+        if (end - start != 10 || line.get(start + 2) != '.' || line.get(start + 5) != '.') {
+            return null;
+        }
+        int day = digits(line, start, 2);
+        int month = digits(line, start + 3, 2);
+        int year = digits(line, start + 6, 4);
+        if (day < 0 || month < 0 || year < 0) {
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+
+    private static int digits(ByteBuffer line, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte b = line.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static String text(ByteBuffer line, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        line.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(ByteBuffer line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer line, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (line.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
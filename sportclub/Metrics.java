@@ -0,0 +1,378 @@
+package sportclub;
+
+import javax.management.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Метрики операций БД: сколько раз вызывалась каждая операция, ошибки, распределение времени
+// (гистограмма, как в HdrHistogram), сколько записей просмотрено и сколько отдано, сколько байт
+// прочитано и записано, попадания в кеш резидентного режима.
+// Операция, которая идет дольше порога, пишется в журнал sportclub.slow (java.util.logging),
+// например: "searchByFullName took 412 ms: scanned 400000, returned 2, read 96 bytes, written 0 bytes".
+// Видно через JMX (jconsole: sportclub -> Database): атрибуты вида "searchByFullName.p99Micros".
+//
+// Счета просмотренного/прочитанного код БД сообщает статическими методами (scanned, returned ...):
+// они попадают в текущую операцию этого потока. Вложенная операция (forEach вызывает select и readRows)
+// учитывается и сама по себе, и в итогах внешней -- кроме returned: что отдано наружу, считает сама внешняя.
+public class Metrics implements DynamicMBean {
+    private static final Logger SLOW_LOG = Logger.getLogger("sportclub.slow");
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    private static final String[] FIELDS = {"calls", "errors", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros",
+            "maxMicros", "scanned", "returned", "bytesRead", "bytesWritten"};
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private volatile long slow_nanos;
+
+    // одна выполняемая операция (в своем потоке)
+    static final class Trace {
+        private final Operation operation;
+        private final Trace outer;
+        private final long start = System.nanoTime();
+        private long scanned;
+        private long returned;
+        private long read;
+        private long written;
+        private boolean failed;
+
+        private Trace(Operation operation, Trace outer) {
+            this.operation = operation;
+            this.outer = outer;
+        }
+
+        void fail() {
+            failed = true;
+        }
+    }
+
+    // гистограмма с логарифмическими интервалами: на каждую степень двойки 16 интервалов,
+    // так что любое значение хранится с точностью ~6%, а память постоянная (976 счетчиков)
+    static final class Histogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB);
+
+        void record(long value) {
+            counts.incrementAndGet(index(Math.max(0, value)));
+        }
+
+        // значение, не больше которого доля q всех значений (верхняя граница интервала)
+        long percentile(double q) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return i + 1 < counts.length() ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+        }
+
+        private static int index(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - SUB_BITS + 1) * SUB + (int) ((value >>> (exponent - SUB_BITS)) & (SUB - 1));
+        }
+
+        private static long lowerBound(int index) {
+            if (index < SUB) {
+                return index;
+            }
+            int exponent = index / SUB + SUB_BITS - 1;
+            return (long) (SUB + index % SUB) << (exponent - SUB_BITS);
+        }
+    }
+
+    // счетчики одной операции
+    static final class Operation {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder scanned = new LongAdder();
+        final LongAdder returned = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+        final Histogram latency = new Histogram();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        long value(String field) {
+            long count = calls.sum();
+            switch (field) {
+                case "calls":
+                    return count;
+                case "errors":
+                    return errors.sum();
+                case "meanMicros":
+                    return count == 0 ? 0 : nanos.sum() / count / 1000;
+                case "p50Micros":
+                    return latency.percentile(0.5) / 1000;
+                case "p90Micros":
+                    return latency.percentile(0.9) / 1000;
+                case "p99Micros":
+                    return latency.percentile(0.99) / 1000;
+                case "p999Micros":
+                    return latency.percentile(0.999) / 1000;
+                case "maxMicros":
+                    return maxNanos.get() / 1000;
+                case "scanned":
+                    return scanned.sum();
+                case "returned":
+                    return returned.sum();
+                case "bytesRead":
+                    return bytesRead.sum();
+                case "bytesWritten":
+                    return bytesWritten.sum();
+                default:
+                    throw new IllegalArgumentException("Unknown metric: " + field);
+            }
+        }
+
+        void reset() {
+            for (LongAdder adder : List.of(calls, errors, nanos, scanned, returned, bytesRead, bytesWritten)) {
+                adder.reset();
+            }
+            maxNanos.reset();
+            latency.reset();
+        }
+    }
+
+    Metrics(long slowMillis) {
+        setSlowThreshold(slowMillis);
+    }
+
+    // начало операции в этом потоке; каждому start -- ровно один finish (в finally)
+    Trace start(String operation) {
+        Trace trace = new Trace(operations.computeIfAbsent(operation, Operation::new), CURRENT.get());
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    void finish(Trace trace) {
+        long elapsed = System.nanoTime() - trace.start;
+        Operation operation = trace.operation;
+        operation.calls.increment();
+        if (trace.failed) {
+            operation.errors.increment();
+        }
+        operation.nanos.add(elapsed);
+        operation.maxNanos.accumulate(elapsed);
+        operation.latency.record(elapsed);
+        operation.scanned.add(trace.scanned);
+        operation.returned.add(trace.returned);
+        operation.bytesRead.add(trace.read);
+        operation.bytesWritten.add(trace.written);
+        Trace outer = trace.outer;
+        if (outer != null) {
+            outer.scanned += trace.scanned;
+            outer.read += trace.read;
+            outer.written += trace.written;
+            CURRENT.set(outer);
+        } else {
+            CURRENT.remove();
+        }
+        if (elapsed >= slow_nanos && SLOW_LOG.isLoggable(Level.WARNING)) {
+            SLOW_LOG.warning(String.format("%s took %d ms%s: scanned %d, returned %d, read %d bytes, written %d bytes",
+                    operation.name, elapsed / 1_000_000, trace.failed ? " (failed)" : "",
+                    trace.scanned, trace.returned, trace.read, trace.written));
+        }
+    }
+
+    // просмотрено записей (строк журнала, элементов индекса)
+    static void scanned(long count) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.scanned += count;
+        }
+    }
+
+    // отдано записей вызывающему
+    static void returned(long count) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.returned += count;
+        }
+    }
+
+    static void read(long bytes) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.read += bytes;
+        }
+    }
+
+    static void written(long bytes) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.written += bytes;
+        }
+    }
+
+    void cacheHit() {
+        cacheHits.increment();
+    }
+
+    void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    void setSlowThreshold(long millis) {
+        slow_nanos = millis * 1_000_000;
+    }
+
+    // значение метрики "операция.поле" (как атрибут JMX); операции, которой еще не было, -- 0
+    public long get(String operation, String field) {
+        Operation stats = operations.get(operation);
+        return stats == null ? 0 : stats.value(field);
+    }
+
+    public double cacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void reset() {
+        for (Operation operation : operations.values()) {
+            operation.reset();
+        }
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    // все операции таблицей, по убыванию суммарного времени
+    public String report() {
+        List<Operation> sorted = new ArrayList<>(operations.values());
+        sorted.sort(Comparator.comparingLong((Operation operation) -> operation.nanos.sum()).reversed());
+        StringBuilder report = new StringBuilder(String.format("%-22s %8s %6s %10s %10s %10s %10s %12s %12s %12s %12s%n",
+                "operation", "calls", "errors", "mean us", "p50 us", "p99 us", "max us", "scanned", "returned", "read", "written"));
+        for (Operation operation : sorted) {
+            report.append(String.format("%-22s %8d %6d %10d %10d %10d %10d %12d %12d %12d %12d%n", operation.name,
+                    operation.value("calls"), operation.value("errors"), operation.value("meanMicros"), operation.value("p50Micros"),
+                    operation.value("p99Micros"), operation.value("maxMicros"), operation.value("scanned"), operation.value("returned"),
+                    operation.value("bytesRead"), operation.value("bytesWritten")));
+        }
+        report.append(String.format("cache: %d hits, %d misses (%.1f%%)%n", cacheHits.sum(), cacheMisses.sum(), cacheHitRate() * 100));
+        return report.toString();
+    }
+
+    // JMX: атрибуты "операция.поле" для каждой операции, которая уже вызывалась, и общие счетчики кеша
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        switch (attribute) {
+            case "cacheHits":
+                return cacheHits.sum();
+            case "cacheMisses":
+                return cacheMisses.sum();
+            case "cacheHitRate":
+                return cacheHitRate();
+            case "slowThresholdMillis":
+                return slow_nanos / 1_000_000;
+            default:
+                break;
+        }
+        int dot = attribute.lastIndexOf('.');
+        Operation operation = dot < 0 ? null : operations.get(attribute.substring(0, dot));
+        if (operation == null || !Arrays.asList(FIELDS).contains(attribute.substring(dot + 1))) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return operation.value(attribute.substring(dot + 1));
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException {
+        if (!attribute.getName().equals("slowThresholdMillis")) {
+            throw new AttributeNotFoundException(attribute.getName());
+        }
+        if (!(attribute.getValue() instanceof Long)) {
+            throw new InvalidAttributeValueException("slowThresholdMillis is a long");
+        }
+        setSlowThreshold((Long) attribute.getValue());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // по правилам JMX неизвестные атрибуты просто пропускаются
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        AttributeList set = new AttributeList();
+        for (Attribute attribute : attributes.asList()) {
+            try {
+                setAttribute(attribute);
+                set.add(attribute);
+            } catch (JMException e) {
+                // пропускаем, как и getAttributes
+            }
+        }
+        return set;
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        switch (action) {
+            case "reset":
+                reset();
+                return null;
+            case "report":
+                return report();
+            default:
+                throw new ReflectionException(new NoSuchMethodException(action));
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("cacheHits", "long", "Reads served by the resident cache", true, false, false));
+        attributes.add(new MBeanAttributeInfo("cacheMisses", "long", "Reads that went to the file in resident mode", true, false, false));
+        attributes.add(new MBeanAttributeInfo("cacheHitRate", "double", "cacheHits / (cacheHits + cacheMisses)", true, false, false));
+        attributes.add(new MBeanAttributeInfo("slowThresholdMillis", "long", "Operations at least this slow are logged to sportclub.slow", true, true, false));
+        for (String operation : new TreeSet<>(operations.keySet())) {
+            for (String field : FIELDS) {
+                attributes.add(new MBeanAttributeInfo(operation + "." + field, "long", operation + " " + field, true, false, false));
+            }
+        }
+        MBeanOperationInfo[] actions = {
+                new MBeanOperationInfo("reset", "Reset all metrics", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION),
+                new MBeanOperationInfo("report", "All operations as a table", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO)};
+        return new MBeanInfo(Metrics.class.getName(), "Sportclub database operation metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, actions, null);
+    }
+}
@@ -0,0 +1,222 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Вторичный индекс по имени (sportclub.nidx) для поиска и удаления по части ФИО.
+// Имя приводится к нижнему регистру и делится на слова по пробелам; каждое слово
+// раскладывается на триграммы (подстроки из 3 символов), и для каждой триграммы хранится
+// множество id. Запрос раскладывается так же: кандидаты -- пересечение множеств его триграмм,
+// а совпадение подстроки проверяется по сохраненному имени, без чтения файла БД.
+// Запросы короче 3 символов проверяются перебором имен в памяти.
+// На диске -- и имена, и готовые множества id триграмм, поэтому при открытии триграммы заново не строятся.
+class NameIndex extends LogIndex {
+    private static final int MAGIC = 0x534E4958; // "SNIX"
+    private static final int VERSION = 2; // 1 -- только имена, через writeUTF (не больше 64 КБ)
+    private static final int GRAM = 3;
+
+    private final IntMap slots = new IntMap(1024); // id -> слот в names
+    private String[] names = new String[1024]; // имена в нижнем регистре
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private final Map<String, IntMap> grams = new HashMap<>(); // триграмма -> множество id
+
+    public NameIndex(File file) {
+        super(file, MAGIC, VERSION);
+    }
+
+    @Override
+    public void put(Data value) {
+        putName(value.id, fold(value.fullName));
+    }
+
+    private void putName(int id, String name) {
+        int slot = slots.get(id);
+        if (slot >= 0) {
+            if (names[slot].equals(name)) {
+                return; // имя не менялось
+            }
+            unindex(id, names[slot]);
+        } else {
+            slot = newSlot(id);
+        }
+        names[slot] = name;
+        for (String gram : grams(name)) {
+            grams.computeIfAbsent(gram, key -> new IntMap(4)).put(id, 0);
+        }
+    }
+
+    @Override
+    public void remove(int id) {
+        int slot = slots.remove(id);
+        if (slot < 0) {
+            return;
+        }
+        unindex(id, names[slot]);
+        names[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    // имя записи в нижнем регистре (для сортировки по имени); null, если записи нет
+    public String name(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? null : names[slot];
+    }
+
+    // id записей, в имени которых встречается fullName (без учета регистра), по возрастанию
+    public int[] search(String fullName) {
+        String query = fold(fullName);
+        List<IntMap> postings = new ArrayList<>();
+        for (String gram : grams(query)) {
+            IntMap ids = grams.get(gram);
+            if (ids == null) {
+                return new int[0]; // такой триграммы нет ни в одном имени
+            }
+            postings.add(ids);
+        }
+        int[] result = new int[16];
+        int count = 0;
+        if (postings.isEmpty()) {
+            Metrics.scanned(slots.size());
+            for (int i = 0; i < slots.capacity(); i++) { // короткий запрос -- перебор имен
+                if (slots.isUsed(i) && names[slots.valueAt(i)].contains(query)) {
+                    result = add(result, count++, slots.keyAt(i));
+                }
+            }
+        } else {
+            postings.sort(Comparator.comparingInt(IntMap::size)); // начинаем с самого короткого списка
+            IntMap smallest = postings.get(0);
+            Metrics.scanned(smallest.size()); // кандидаты, у которых проверяется само имя
+            for (int i = 0; i < smallest.capacity(); i++) {
+                if (!smallest.isUsed(i)) {
+                    continue;
+                }
+                int id = smallest.keyAt(i);
+                boolean candidate = true;
+                for (int p = 1; p < postings.size() && candidate; p++) {
+                    candidate = postings.get(p).get(id) >= 0;
+                }
+                if (candidate && names[slots.get(id)].contains(query)) {
+                    result = add(result, count++, id);
+                }
+            }
+        }
+        int[] ids = Arrays.copyOf(result, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    @Override
+    protected void clear() {
+        slots.clear();
+        grams.clear();
+        Arrays.fill(names, null);
+        freeCount = 0;
+        slotCount = 0;
+    }
+
+    // пары id -> имя, затем триграммы со своими множествами id. Строки -- длина (int) и байты UTF-8
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(slots.size());
+        for (int i = 0; i < slots.capacity(); i++) {
+            if (slots.isUsed(i)) {
+                out.writeInt(slots.keyAt(i));
+                writeString(out, names[slots.valueAt(i)]);
+            }
+        }
+        out.writeInt(grams.size());
+        for (Map.Entry<String, IntMap> gram : grams.entrySet()) {
+            IntMap ids = gram.getValue();
+            writeString(out, gram.getKey());
+            out.writeInt(ids.size());
+            for (int i = 0; i < ids.capacity(); i++) {
+                if (ids.isUsed(i)) {
+                    out.writeInt(ids.keyAt(i));
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void read(DataInputStream in) throws IOException {
+        clear();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int slot = newSlot(in.readInt());
+            names[slot] = readString(in);
+        }
+        int gramCount = in.readInt();
+        for (int i = 0; i < gramCount; i++) {
+            String gram = readString(in);
+            int size = in.readInt();
+            IntMap ids = new IntMap(size);
+            for (int j = 0; j < size; j++) {
+                ids.put(in.readInt(), 0);
+            }
+            grams.put(gram, ids);
+        }
+    }
+
+    private int newSlot(int id) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+        if (slot == names.length) {
+            names = Arrays.copyOf(names, slot * 2);
+        }
+        slots.put(id, slot);
+        return slot;
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void unindex(int id, String name) {
+        for (String gram : grams(name)) {
+            IntMap ids = grams.get(gram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.size() == 0) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    // триграммы всех слов строки (триграммы через пробел не строятся:
+    // для запроса они ничего не отсеивают, а проверка подстроки все равно идет по имени)
+    private static Set<String> grams(String text) {
+        Set<String> result = new HashSet<>();
+        for (String word : text.split("\\s+")) {
+            for (int i = 0; i + GRAM <= word.length(); i++) {
+                result.add(word.substring(i, i + GRAM));
+            }
+        }
+        return result;
+    }
+
+    private static String fold(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] add(int[] array, int index, int value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, index * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+}
@@ -0,0 +1,77 @@
+package sportclub;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+// Параллельный обход снимка БД (fork-join).
+// Отображенный файл делится пополам, пока кусок больше SPLIT_SIZE; граница сдвигается на начало
+// следующей строки, поэтому каждая строка попадает ровно в один кусок. Каждый кусок обходится
+// в своем потоке: строка берется, только если на момент снимка она была актуальной версией записи,
+// разбирается и проверяется условием; подходящие записи собираются Collector'ом в свой контейнер,
+// а контейнеры объединяются слева направо -- порядок результата совпадает с порядком в файле.
+// Блокировка чтения БД берется на один кусок, поэтому изменения БД идут между кусками.
+class ParallelScan<A> extends RecursiveTask<A> {
+    private static final long SPLIT_SIZE = 1 << 20; // 1 МБ -- меньше кусок не делится
+
+    private final Database.ReadView view;
+    private final MappedReader mapped;
+    private final Predicate<Data> where;
+    private final Supplier<A> supplier;
+    private final BiConsumer<A, Data> accumulator;
+    private final BinaryOperator<A> combiner;
+    private final long from;
+    private final long to;
+
+    private ParallelScan(Database.ReadView view, Predicate<Data> where, Supplier<A> supplier,
+                         BiConsumer<A, Data> accumulator, BinaryOperator<A> combiner, long from, long to) {
+        this.view = view;
+        this.mapped = view.mapped();
+        this.where = where;
+        this.supplier = supplier;
+        this.accumulator = accumulator;
+        this.combiner = combiner;
+        this.from = from;
+        this.to = to;
+    }
+
+    // обход всех строк, которые видит снимок
+    @SuppressWarnings("unchecked")
+    static <A, R> R run(Database.ReadView view, Predicate<Data> where, Collector<Data, A, R> collector) {
+        A result = new ParallelScan<>(view, where, collector.supplier(), collector.accumulator(),
+                collector.combiner(), 0, view.length()).invoke();
+        if (collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)) {
+            return (R) result;
+        }
+        return collector.finisher().apply(result);
+    }
+
+    @Override
+    protected A compute() {
+        if (to - from > SPLIT_SIZE) {
+            long middle = mapped.nextLineStart(from + (to - from) / 2);
+            if (middle < to) { // иначе во второй половине нет начала строки -- делить нечего
+                ParallelScan<A> right = new ParallelScan<>(view, where, supplier, accumulator, combiner, middle, to);
+                right.fork();
+                A left = new ParallelScan<>(view, where, supplier, accumulator, combiner, from, middle).compute();
+                return combiner.apply(left, right.join());
+            }
+        }
+        A container = supplier.get();
+        try {
+            view.forEachLive(from, to, value -> {
+                if (where.test(value)) {
+                    accumulator.accept(container, value);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // обработчик строк исключений ввода-вывода не бросает
+        }
+        return container;
+    }
+}
@@ -0,0 +1,60 @@
+package sportclub;
+
+import java.time.LocalDate;
+
+// Запрос к БД: какие записи выбрать и в каком порядке.
+// Фильтры и сортировка выполняются самой БД по индексам (id, имя, даты), а в ответ
+// приходит только упорядоченный список id -- сами записи читаются страницами по мере надобности.
+// Объект неизменяемый: каждый метод возвращает новый запрос.
+public class Query {
+    public enum Order { ID, NAME, PURCHASE_DATE, EXPIRATION_DATE }
+
+    final Integer id; // только запись с этим id
+    final String nameContains; // часть ФИО без учета регистра
+    final LocalDate purchasedFrom;
+    final LocalDate purchasedTo;
+    final LocalDate expiringFrom;
+    final LocalDate expiringTo;
+    final Order order;
+    final boolean descending;
+
+    private Query(Integer id, String nameContains, LocalDate purchasedFrom, LocalDate purchasedTo,
+                  LocalDate expiringFrom, LocalDate expiringTo, Order order, boolean descending) {
+        this.id = id;
+        this.nameContains = nameContains;
+        this.purchasedFrom = purchasedFrom;
+        this.purchasedTo = purchasedTo;
+        this.expiringFrom = expiringFrom;
+        this.expiringTo = expiringTo;
+        this.order = order;
+        this.descending = descending;
+    }
+
+    // все записи по возрастанию id
+    public static Query all() {
+        return new Query(null, null, null, null, null, null, Order.ID, false);
+    }
+
+    public Query id(int id) {
+        return new Query(id, nameContains, purchasedFrom, purchasedTo, expiringFrom, expiringTo, order, descending);
+    }
+
+    // null или пустая строка -- без фильтра по имени
+    public Query nameContains(String name) {
+        String filter = name == null || name.isEmpty() ? null : name;
+        return new Query(id, filter, purchasedFrom, purchasedTo, expiringFrom, expiringTo, order, descending);
+    }
+
+    // обе границы включаются; null -- без границы с этой стороны
+    public Query purchasedBetween(LocalDate from, LocalDate to) {
+        return new Query(id, nameContains, from, to, expiringFrom, expiringTo, order, descending);
+    }
+
+    public Query expiringBetween(LocalDate from, LocalDate to) {
+        return new Query(id, nameContains, purchasedFrom, purchasedTo, from, to, order, descending);
+    }
+
+    public Query orderBy(Order order, boolean descending) {
+        return new Query(id, nameContains, purchasedFrom, purchasedTo, expiringFrom, expiringTo, order, descending);
+    }
+}
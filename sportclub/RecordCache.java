@@ -0,0 +1,94 @@
+package sportclub;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Кеш всех актуальных записей в памяти ("резидентный" режим БД).
+// Записи хранятся по колонкам: даты -- как номер дня от эпохи (int), тренировки -- boolean,
+// а id -> номер слота ищется по IntMap без упаковки в Integer.
+// Объем кеша ограничен бюджетом памяти: если записи в него не помещаются, put возвращает false.
+class RecordCache {
+    // примерная цена одной записи: колонки + две ячейки IntMap + заголовок строки имени
+    private static final int RECORD_OVERHEAD = 4 + 4 + 4 + 1 + 8 + 16 + 56;
+
+    private final long memoryBudget;
+    private final IntMap slots = new IntMap(1024);
+    private int[] ids = new int[1024];
+    private String[] names = new String[1024];
+    private int[] purchaseDays = new int[1024];
+    private int[] expirationDays = new int[1024];
+    private boolean[] individualTraining = new boolean[1024];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int slotCount;
+    private long usedBytes;
+
+    public RecordCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public Data get(int id) {
+        int slot = slots.get(id);
+        return slot < 0 ? null : toData(slot);
+    }
+
+    // false -- запись не поместилась в бюджет памяти, кеш больше нельзя считать полным
+    public boolean put(Data value) {
+        int slot = slots.get(value.id);
+        if (slot < 0) {
+            if (usedBytes + cost(value.fullName) > memoryBudget) {
+                return false;
+            }
+            slot = freeCount > 0 ? freeSlots[--freeCount] : slotCount++;
+            if (slot == ids.length) {
+                grow(slot * 2);
+            }
+            slots.put(value.id, slot);
+        } else {
+            usedBytes -= cost(names[slot]);
+            if (usedBytes + cost(value.fullName) > memoryBudget) {
+                usedBytes += cost(names[slot]);
+                return false;
+            }
+        }
+        ids[slot] = value.id;
+        names[slot] = value.fullName;
+        purchaseDays[slot] = (int) value.purchaseDate.toEpochDay();
+        expirationDays[slot] = (int) value.expirationDate.toEpochDay();
+        individualTraining[slot] = value.individualTraining;
+        usedBytes += cost(value.fullName);
+        return true;
+    }
+
+    public void remove(int id) {
+        int slot = slots.remove(id);
+        if (slot < 0) {
+            return;
+        }
+        usedBytes -= cost(names[slot]);
+        names[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private Data toData(int slot) {
+        return new Data(ids[slot], names[slot],
+                LocalDate.ofEpochDay(purchaseDays[slot]),
+                LocalDate.ofEpochDay(expirationDays[slot]),
+                individualTraining[slot]);
+    }
+
+    private static long cost(String name) {
+        return RECORD_OVERHEAD + 2L * name.length();
+    }
+
+    private void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        names = Arrays.copyOf(names, capacity);
+        purchaseDays = Arrays.copyOf(purchaseDays, capacity);
+        expirationDays = Arrays.copyOf(expirationDays, capacity);
+        individualTraining = Arrays.copyOf(individualTraining, capacity);
+    }
+}
@@ -0,0 +1,110 @@
+package sportclub;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+// Строка журнала с контрольной суммой: <запись>#<CRC32C записи, 8 hex-цифр>\n
+// (запись -- "id,имя,даты,тренировки", надгробие "-id" или заголовок транзакции "@длина").
+// Строки без суммы (файлы старых версий) читаются как раньше, но не проверяются.
+class RecordLine {
+    private static final int SUFFIX = 9; // '#' и 8 hex-цифр
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private RecordLine() {
+    }
+
+    // байты строки для дозаписи в журнал, вместе с суммой и \n
+    static byte[] encode(String record) {
+        byte[] content = record.getBytes(StandardCharsets.UTF_8);
+        byte[] line = new byte[content.length + SUFFIX + 1];
+        System.arraycopy(content, 0, line, 0, content.length);
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        long value = crc.getValue();
+        line[content.length] = '#';
+        for (int i = 0; i < 8; i++) {
+            line[content.length + 1 + i] = HEX[(int) (value >>> (28 - 4 * i)) & 0xF];
+        }
+        line[line.length - 1] = '\n';
+        return line;
+    }
+
+    // заголовок транзакции "@<длина>": за ним идут <длина> байт строк транзакции (см. Database.Transaction)
+    static byte[] transaction(long length) {
+        return encode("@" + length);
+    }
+
+    // строка журнала (без суммы) -- заголовок транзакции, а не запись
+    static boolean isTransaction(String record) {
+        return record.startsWith("@");
+    }
+
+    // конец самой записи в строке [start, end) (без \n): перед суммой, если она есть.
+    // -1 -- сумма не сходится (строка повреждена)
+    static int contentEnd(ByteBuffer buffer, int start, int end) {
+        int hashAt = end - SUFFIX;
+        if (hashAt < start || buffer.get(hashAt) != '#') {
+            return end; // строка старого формата
+        }
+        long expected = 0;
+        for (int i = hashAt + 1; i < end; i++) {
+            int digit = Character.digit(buffer.get(i), 16);
+            if (digit < 0) {
+                return end; // '#' в конце -- не сумма
+            }
+            expected = (expected << 4) | digit;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(start, hashAt - start));
+        return crc.getValue() == expected ? hashAt : -1;
+    }
+
+    // строка журнала без суммы (для импорта файла БД как CSV); IllegalArgumentException, если сумма не сходится
+    static String strip(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        int end = contentEnd(ByteBuffer.wrap(bytes), 0, bytes.length);
+        if (end < 0) {
+            throw new IllegalArgumentException("Checksum mismatch: " + line);
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    // проверка журнала начиная с from (граница строки): возвращает длину целой части файла.
+    // Недописанная последняя строка и поврежденные строки в самом конце (после сбоя) -- "рваный хвост",
+    // его можно отрезать. Поврежденная строка, за которой идут целые, -- это уже не хвост: DatabaseException.Damaged.
+    // Транзакцию, которую сбой оборвал на середине, отрезаем целиком, вместе с ее заголовком
+    static long verify(File file, long from) throws IOException {
+        // конец последней целой строки, начало первой поврежденной после нее,
+        // начало заголовка последней транзакции и где эта транзакция должна закончиться
+        long[] state = {from, -1, -1, -1};
+        IdIndex.scan(file, from, (offset, line, length) -> {
+            int end = length;
+            while (end > 0 && (line[end - 1] == '\n' || line[end - 1] == '\r')) {
+                end--;
+            }
+            int content = contentEnd(ByteBuffer.wrap(line, 0, end), 0, end);
+            if (content < 0) {
+                if (state[1] < 0) {
+                    state[1] = offset;
+                }
+            } else {
+                if (state[1] >= 0) {
+                    throw new DatabaseException.Damaged("Database file is damaged at offset " + state[1] + ": " + file);
+                }
+                state[0] = offset + length;
+                if (content > 1 && line[0] == '@') {
+                    try {
+                        long transaction = Long.parseLong(new String(line, 1, content - 1, StandardCharsets.US_ASCII));
+                        state[2] = offset;
+                        state[3] = offset + length + transaction;
+                    } catch (NumberFormatException e) {
+                        // не заголовок транзакции
+                    }
+                }
+            }
+        });
+        return state[3] > state[0] ? state[2] : state[0];
+    }
+}
@@ -0,0 +1,150 @@
+package sportclub;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Модель таблицы записей, которая не держит результат целиком.
+// БД по запросу возвращает только упорядоченные id, а сами строки подгружаются страницами
+// в фоне, когда таблица до них докручивается: в памяти -- массив id и несколько последних страниц.
+// Сортировка (щелчок по заголовку) и фильтр по имени меняют запрос, выборку заново делает сама БД.
+// Все методы вызываются в потоке Swing.
+class RecordTableModel extends AbstractTableModel {
+    static final String[] COLUMNS = {"ID", "Full Name", "Purchase Date", "Expiration Date", "Individual Training"};
+    private static final Query.Order[] COLUMN_ORDER = {Query.Order.ID, Query.Order.NAME, Query.Order.PURCHASE_DATE, Query.Order.EXPIRATION_DATE, null};
+    private static final int PAGE_SIZE = 200;
+    private static final int CACHED_PAGES = 16;
+
+    private final Database database;
+    private final Consumer<Throwable> onError;
+    private Query query;
+    private int[] ids = new int[0];
+    private int version; // номер выборки: страницы, загруженные для старой выборки, отбрасываются
+    private CompletableFuture<int[]> pendingSelect;
+    private final Set<Integer> loading = new HashSet<>();
+    private final Set<Integer> failed = new HashSet<>(); // страницы, которые не загрузились: до новой выборки не запрашиваются
+    private final Map<Integer, List<Data>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Data>> eldest) {
+            return size() > CACHED_PAGES; // давно не показанные страницы выбрасываются
+        }
+    };
+
+    RecordTableModel(Database database, Query query, Consumer<Throwable> onError) {
+        this.database = database;
+        this.onError = onError;
+        setQuery(query);
+    }
+
+    Query getQuery() {
+        return query;
+    }
+
+    // новая выборка; пока она идет, таблица показывает старую, а незавершенная предыдущая отменяется
+    void setQuery(Query query) {
+        this.query = query;
+        if (pendingSelect != null) {
+            pendingSelect.cancel(false);
+        }
+        CompletableFuture<int[]> select = database.selectAsync(query);
+        pendingSelect = select;
+        select.whenCompleteAsync((result, error) -> {
+            if (select != pendingSelect) {
+                return;
+            }
+            pendingSelect = null;
+            if (error != null) {
+                onError.accept(error);
+                return;
+            }
+            ids = result;
+            version++;
+            pages.clear();
+            loading.clear();
+            failed.clear(); // новая выборка (сортировка, фильтр) -- заодно повтор страниц, которые не загрузились
+            fireTableDataChanged();
+        }, SwingUtilities::invokeLater);
+    }
+
+    // щелчок по заголовку: сортировка по столбцу, повторный щелчок -- в обратном порядке.
+    // column -- номер столбца модели (JTable.convertColumnIndexToModel), а не его место на экране
+    void sortBy(int column) {
+        if (column < 0 || COLUMN_ORDER[column] == null) {
+            return;
+        }
+        Query.Order order = COLUMN_ORDER[column];
+        setQuery(query.orderBy(order, order == query.order && !query.descending));
+    }
+
+    void filterByName(String text) {
+        setQuery(query.nameContains(text.trim()));
+    }
+
+    @Override
+    public int getRowCount() {
+        return ids.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    // строка еще не загружена -- пустые ячейки, страница запрашивается в фоне
+    @Override
+    public Object getValueAt(int row, int column) {
+        List<Data> page = pages.get(row / PAGE_SIZE);
+        if (page == null) {
+            load(row / PAGE_SIZE);
+            return null;
+        }
+        Data value = page.get(row % PAGE_SIZE);
+        if (value == null) {
+            return column == 1 ? "(deleted)" : null; // запись удалили после выборки
+        }
+        switch (column) {
+            case 0:
+                return value.id;
+            case 1:
+                return value.fullName;
+            case 2:
+                return value.purchaseDate.format(Data.DATE_FORMATTER);
+            case 3:
+                return value.expirationDate.format(Data.DATE_FORMATTER);
+            default:
+                return String.valueOf(value.individualTraining);
+        }
+    }
+
+    // страница, которая не загрузилась, повторно не запрашивается: иначе каждая перерисовка таблицы
+    // запрашивала бы ее снова и показывала новое сообщение об ошибке
+    private void load(int page) {
+        if (failed.contains(page) || !loading.add(page)) {
+            return; // уже загружается или не загрузилась
+        }
+        int loadVersion = version;
+        int[] rows = ids;
+        int from = page * PAGE_SIZE;
+        int to = Math.min(rows.length, from + PAGE_SIZE);
+        database.submit(() -> database.readRows(rows, from, to)).whenCompleteAsync((values, error) -> {
+            if (loadVersion != version) {
+                return;
+            }
+            loading.remove(page);
+            if (error != null) {
+                failed.add(page);
+                onError.accept(error);
+                return;
+            }
+            pages.put(page, values);
+            fireTableRowsUpdated(from, to - 1);
+        }, SwingUtilities::invokeLater);
+    }
+}
@@ -0,0 +1,142 @@
+package sportclub;
+
+import java.io.*;
+import java.time.YearMonth;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Счетчики для сводки (Database.stats), файл sportclub.sidx: сколько записей, сколько из них
+// с индивидуальными тренировками и сколько абонементов продано в каждом месяце (по дате покупки).
+// Счетчики меняются на разницу при каждом изменении записи, поэтому для каждого id хранится,
+// как запись уже учтена: месяц покупки и признак тренировок в одном int.
+// На диск пишутся и готовые счетчики, и это соответствие: при загрузке счетчики не пересчитываются, а сверяются --
+// с длиной журнала, на которой они сняты, и с количеством записей. Если не сходится, индекс строится заново
+class StatsIndex extends LogIndex {
+    private static final int MAGIC = 0x53535458; // "SSTX"
+    private static final int VERSION = 2; // 1 -- без счетчиков, они пересчитывались при загрузке
+
+    private final IntMap counted = new IntMap(1024); // id -> месяц покупки * 2 + индивидуальные тренировки
+    private final IntMap sales = new IntMap(64); // месяц покупки (год * 12 + месяц - 1) -> количество записей
+    private int individualTraining;
+
+    public StatsIndex(File file) {
+        super(file, MAGIC, VERSION);
+    }
+
+    @Override
+    public void put(Data value) {
+        int key = key(value);
+        int old = counted.get(value.id);
+        if (old == key) {
+            return; // месяц и тренировки не менялись
+        }
+        if (old >= 0) {
+            uncount(old);
+        }
+        counted.put(value.id, key);
+        count(key);
+    }
+
+    @Override
+    public void remove(int id) {
+        int old = counted.remove(id);
+        if (old >= 0) {
+            uncount(old);
+        }
+    }
+
+    public int members() {
+        return counted.size();
+    }
+
+    public int individualTraining() {
+        return individualTraining;
+    }
+
+    // продажи по месяцам, от ранних к поздним (месяцы без продаж пропущены)
+    public SortedMap<YearMonth, Integer> salesByMonth() {
+        SortedMap<YearMonth, Integer> result = new TreeMap<>();
+        for (int i = 0; i < sales.capacity(); i++) {
+            if (sales.isUsed(i)) {
+                int month = sales.keyAt(i);
+                result.put(YearMonth.of(month / 12, month % 12 + 1), sales.valueAt(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected void clear() {
+        counted.clear();
+        sales.clear();
+        individualTraining = 0;
+    }
+
+    // счетчики, затем соответствие id -> ключ, затем еще раз длина журнала, на которой все это снято
+    @Override
+    protected void write(DataOutputStream out) throws IOException {
+        out.writeInt(individualTraining);
+        out.writeInt(sales.size());
+        for (int i = 0; i < sales.capacity(); i++) {
+            if (sales.isUsed(i)) {
+                out.writeInt(sales.keyAt(i));
+                out.writeInt(sales.valueAt(i));
+            }
+        }
+        out.writeInt(counted.size());
+        for (int i = 0; i < counted.capacity(); i++) {
+            if (counted.isUsed(i)) {
+                out.writeInt(counted.keyAt(i));
+                out.writeInt(counted.valueAt(i));
+            }
+        }
+        out.writeLong(coveredLength());
+    }
+
+    @Override
+    protected void read(DataInputStream in) throws IOException {
+        clear();
+        individualTraining = in.readInt();
+        int months = in.readInt();
+        long sold = 0;
+        for (int i = 0; i < months; i++) {
+            int month = in.readInt();
+            int value = in.readInt();
+            sales.put(month, value);
+            sold += value;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            counted.put(id, in.readInt());
+        }
+        // каждая учтенная запись продана ровно в одном месяце
+        if (in.readLong() != coveredLength() || sold != counted.size() || individualTraining < 0 || individualTraining > counted.size()) {
+            throw new StreamCorruptedException("Stats counters do not match the saved records");
+        }
+    }
+
+    private void count(int key) {
+        add(key >> 1, 1);
+        individualTraining += key & 1;
+    }
+
+    private void uncount(int key) {
+        add(key >> 1, -1);
+        individualTraining -= key & 1;
+    }
+
+    private void add(int month, int delta) {
+        int value = Math.max(sales.get(month), 0) + delta;
+        if (value > 0) {
+            sales.put(month, value);
+        } else {
+            sales.remove(month);
+        }
+    }
+
+    private static int key(Data value) {
+        int month = value.purchaseDate.getYear() * 12 + value.purchaseDate.getMonthValue() - 1;
+        return Math.max(month, 0) * 2 + (value.individualTraining ? 1 : 0); // до нашей эры -- в нулевой месяц
+    }
+}
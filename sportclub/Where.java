@@ -0,0 +1,40 @@
+package sportclub;
+
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+// Условия для отчетов (Database.scan) по полям записи. Условия объединяются через and/or/negate:
+//   Where.activeOn(LocalDate.now()).and(Where.individualTraining(true))
+public class Where {
+    private Where() {
+    }
+
+    public static Predicate<Data> any() {
+        return value -> true;
+    }
+
+    // часть ФИО без учета регистра
+    public static Predicate<Data> nameContains(String part) {
+        String query = part.toLowerCase(Locale.ROOT);
+        return value -> value.fullName.toLowerCase(Locale.ROOT).contains(query);
+    }
+
+    // границы включаются
+    public static Predicate<Data> purchasedBetween(LocalDate from, LocalDate to) {
+        return value -> !value.purchaseDate.isBefore(from) && !value.purchaseDate.isAfter(to);
+    }
+
+    public static Predicate<Data> expiringBetween(LocalDate from, LocalDate to) {
+        return value -> !value.expirationDate.isBefore(from) && !value.expirationDate.isAfter(to);
+    }
+
+    // абонемент действует в этот день
+    public static Predicate<Data> activeOn(LocalDate day) {
+        return value -> !value.purchaseDate.isAfter(day) && !value.expirationDate.isBefore(day);
+    }
+
+    public static Predicate<Data> individualTraining(boolean training) {
+        return value -> value.individualTraining == training;
+    }
+}